@@ -2,108 +2,97 @@ package ru.practicum.aggregator.stats;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.specific.SpecificRecordBase;
-import org.apache.kafka.clients.consumer.*;
 import org.apache.kafka.clients.producer.KafkaProducer;
-import org.apache.kafka.clients.producer.ProducerRecord;
-import org.apache.kafka.common.TopicPartition;
-import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.stereotype.Component;
 import ru.practicum.aggregator.stats.kafka.KafkaConfigProperties;
 import ru.practicum.aggregator.stats.service.SimilarityService;
-import ru.practicum.stats.avro.EventSimilarityAvro;
-import ru.practicum.stats.avro.UserActionAvro;
+import ru.practicum.aggregator.stats.service.SimilarityStateStore;
+import ru.practicum.aggregator.stats.service.SimilarityUpdateFilter;
+import ru.practicum.aggregator.stats.service.StateRetention;
+import ru.practicum.stats.kafka.ProducerProfile;
 
-import java.time.Duration;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 @Slf4j
 @Component
 public class AggregationStarter {
 
-    private static final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
     private final SimilarityService similarityService;
+    private final SimilarityStateStore stateStore;
+    private final SimilarityUpdateFilter updateFilter;
+    private final StateRetention retention;
     private final KafkaProducer<Long, SpecificRecordBase> producer;
-    private final KafkaConsumer<Long, UserActionAvro> consumer;
     private final KafkaConfigProperties kafkaConfig;
+    private final List<AggregationWorker> workers = new ArrayList<>();
 
-    public AggregationStarter(SimilarityService similarityService, KafkaConfigProperties kafkaConfig) {
+    public AggregationStarter(SimilarityService similarityService, SimilarityStateStore stateStore,
+                              SimilarityUpdateFilter updateFilter, StateRetention retention,
+                              KafkaConfigProperties kafkaConfig) {
         this.similarityService = similarityService;
-        this.producer = new KafkaProducer<>(kafkaConfig.getProducerProps());
-        this.consumer = new KafkaConsumer<>(kafkaConfig.getConsumerProps());
+        this.stateStore = stateStore;
+        this.updateFilter = updateFilter;
+        this.retention = retention;
+        this.producer = new KafkaProducer<>(
+                ProducerProfile.apply(kafkaConfig.getProducerProfile(), kafkaConfig.getProducerProps()));
         this.kafkaConfig = kafkaConfig;
     }
 
     public void start() {
-        log.info("Запуск сервиса aggregator");
+        log.info("Запуск сервиса aggregator, воркеров: {}", kafkaConfig.getWorkers());
+        List<Thread> threads = new ArrayList<>();
         try {
-            consumer.subscribe(List.of(kafkaConfig.getUserActionsTopic()));
-            Runtime.getRuntime().addShutdownHook(new Thread(consumer::wakeup));
-
-            while (true) {
-                ConsumerRecords<Long, UserActionAvro> records = consumer.poll(Duration.ofMillis(100));
-
-                int count = 0;
-                for (ConsumerRecord<Long, UserActionAvro> record : records) {
-
-                    log.info("Получено сообщение: topic = {}, partition = {}, offset = {}, value = {}",
-                            record.topic(), record.partition(), record.offset(), record.value());
-
-                    List<EventSimilarityAvro> eventSimilarityAvros = similarityService.updateSimilarity(record.value());
-
-                    for (EventSimilarityAvro eventSimilarity : eventSimilarityAvros) {
-                        ProducerRecord<Long, SpecificRecordBase> producerRecord = new ProducerRecord<>(
-                                kafkaConfig.getEventsSimilarityTopic(),
-                                null,
-                                eventSimilarity.getTimestamp().toEpochMilli(),
-                                eventSimilarity.getEventA(),
-                                eventSimilarity);
-                        producer.send(producerRecord);
-                        manageOffsets(record, count, consumer);
-                        log.info("Схожесть для событий ID {} и ID {} отправлено в topic {}",
-                                eventSimilarity.getEventA(), eventSimilarity.getEventB(), producerRecord.topic());
-                        count++;
-                    }
+            stateStore.restore();
+
+            synchronized (workers) {
+                for (int i = 0; i < kafkaConfig.getWorkers(); i++) {
+                    AggregationWorker worker = new AggregationWorker("aggregator-worker-" + i, similarityService,
+                            stateStore, updateFilter, retention, producer, kafkaConfig);
+                    workers.add(worker);
+                    Runtime.getRuntime().addShutdownHook(new Thread(worker::stop));
                 }
             }
 
-        } catch (WakeupException ignored) {
-            log.info("Consumer получил WakeupException, завершение работы");
+            for (int i = 1; i < workers.size(); i++) {
+                Thread thread = new Thread(workers.get(i));
+                thread.setName("AggregatorWorkerThread-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            workers.getFirst().run();
+
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("Ошибка обработки user actions", e);
         } finally {
-
-            try {
-                producer.flush();
-                consumer.commitSync();
-            } finally {
-                log.info("Закрываем консьюмер");
-                consumer.close();
-                log.info("Закрываем продюсер");
-                producer.close();
-            }
+            log.info("Закрываем продюсер");
+            producer.close();
         }
     }
 
-    private void manageOffsets(ConsumerRecord<Long, UserActionAvro> record, int count,
-                               KafkaConsumer<Long, UserActionAvro> consumer) {
-        currentOffsets.put(
-                new TopicPartition(record.topic(), record.partition()),
-                new OffsetAndMetadata(record.offset() + 1)
-        );
-
-        if (count % 5 == 0) {
-            consumer.commitAsync(currentOffsets, (offsets, exception) -> {
-                if (exception != null) {
-                    log.warn("Ошибка фиксации оффсетов: {}", offsets, exception);
-                }
-            });
+    /**
+     * Шард пользователя вычисляется тем же хэшем, что и партиция его действий; при другом числе
+     * партиций веса пользователя меняли бы несколько воркеров, поэтому агрегатор не запускается.
+     *
+     * @throws IllegalStateException если число партиций топика не совпадает с числом шардов
+     */
+    public void checkPartitions() {
+        int partitions = producer.partitionsFor(kafkaConfig.getUserActionsTopic()).size();
+        if (stateStore.shardCount() > 1 && partitions != stateStore.shardCount()) {
+            throw new IllegalStateException(String.format(
+                    "В топике %s партиций: %d, а шардов состояния: %d. Задайте user-actions-partitions = %d",
+                    kafkaConfig.getUserActionsTopic(), partitions, stateStore.shardCount(), partitions));
         }
     }
 
     public void stop() {
         log.info("Остановка агрегатора через wakeup...");
-        consumer.wakeup();
+        synchronized (workers) {
+            workers.forEach(AggregationWorker::stop);
+        }
     }
 }
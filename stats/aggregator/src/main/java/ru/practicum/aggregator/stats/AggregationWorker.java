@@ -0,0 +1,313 @@
+package ru.practicum.aggregator.stats;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.InterruptException;
+import org.apache.kafka.common.errors.WakeupException;
+import ru.practicum.aggregator.stats.kafka.KafkaConfigProperties;
+import ru.practicum.aggregator.stats.service.SimilarityService;
+import ru.practicum.aggregator.stats.service.SimilarityStateStore;
+import ru.practicum.aggregator.stats.service.SimilarityUpdateFilter;
+import ru.practicum.aggregator.stats.service.StateRetention;
+import ru.practicum.aggregator.stats.service.StateKeys;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Цикл обработки user actions одним consumer-ом группы. Каждый воркер владеет своими партициями,
+ * а действия пользователя всегда приходят в одну партицию, поэтому веса пользователя меняет
+ * только один воркер.
+ * <p>
+ * Все воркеры работают в одном процессе над общим состоянием в памяти: суммы по событиям и парам
+ * складываются из действий всех пользователей. Поэтому агрегатор запускается одним экземпляром;
+ * второй экземпляр в той же группе получил бы часть партиций без состояния их пользователей.
+ */
+@Slf4j
+public class AggregationWorker implements Runnable {
+
+    private final Map<TopicPartition, OffsetAndMetadata> currentOffsets = new HashMap<>();
+    private final String name;
+    private final SimilarityService similarityService;
+    private final SimilarityStateStore stateStore;
+    private final SimilarityUpdateFilter updateFilter;
+    private final StateRetention retention;
+    private final KafkaProducer<Long, SpecificRecordBase> producer;
+    private final KafkaConsumer<Long, UserActionAvro> consumer;
+    private final KafkaConfigProperties kafkaConfig;
+    private final AtomicReference<Exception> sendError = new AtomicReference<>();
+    private int[] ownedShards = new int[0];
+    private boolean uncommitted;
+    private long lastCommit = System.nanoTime();
+
+    public AggregationWorker(String name, SimilarityService similarityService, SimilarityStateStore stateStore,
+                             SimilarityUpdateFilter updateFilter, StateRetention retention,
+                             KafkaProducer<Long, SpecificRecordBase> producer, KafkaConfigProperties kafkaConfig) {
+        this.name = name;
+        this.similarityService = similarityService;
+        this.stateStore = stateStore;
+        this.updateFilter = updateFilter;
+        this.retention = retention;
+        this.producer = producer;
+        this.consumer = new KafkaConsumer<>(kafkaConfig.getConsumerProps());
+        this.kafkaConfig = kafkaConfig;
+    }
+
+    @Override
+    public void run() {
+        log.info("Запуск воркера {}", name);
+        boolean failed = false;
+        try {
+            consumer.subscribe(List.of(kafkaConfig.getUserActionsTopic()), new ShardHandoffListener());
+
+            while (true) {
+                ConsumerRecords<Long, UserActionAvro> records = consumer.poll(Duration.ofMillis(100));
+
+                if (!records.isEmpty()) {
+                    if (kafkaConfig.isBatchMode()) {
+                        processBatch(records);
+                    } else {
+                        processRecords(records);
+                    }
+                }
+                retention.evictStep(ownedShards);
+                commitOffsetsIfDue();
+            }
+
+        } catch (WakeupException ignored) {
+            log.info("Воркер {} получил WakeupException, завершение работы", name);
+        } catch (Exception e) {
+            failed = true;
+            log.error("Ошибка обработки user actions в воркере {}", name, e);
+        } finally {
+
+            try {
+                if (failed) {
+                    // Изменения последнего poll-а могли не дойти до брокера: их перечитает следующий владелец
+                    log.warn("Воркер {} завершился с ошибкой, оффсеты не фиксируются", name);
+                } else {
+                    commitOffsets(currentOffsets, ownedShards, true);
+                }
+            } catch (ExecutionException e) {
+                log.error("Воркер {}: накопленные схожести не отправлены, оффсеты не фиксируются", name, e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                log.info("Закрываем консьюмер воркера {}", name);
+                consumer.close();
+            }
+        }
+    }
+
+    public void stop() {
+        consumer.wakeup();
+    }
+
+    /**
+     * Шарды пользователей, которыми владеет воркер: партиции совпадают с шардами состояния,
+     * а несегментированное состояние целиком принадлежит единственному воркеру.
+     */
+    private int[] shardsOf(Collection<TopicPartition> partitions) {
+        int shardCount = stateStore.shardCount();
+        if (shardCount == 1) {
+            return partitions.isEmpty() ? new int[0] : new int[]{0};
+        }
+        return partitions.stream()
+                .mapToInt(TopicPartition::partition)
+                .filter(partition -> partition < shardCount)
+                .toArray();
+    }
+
+    private void processRecords(ConsumerRecords<Long, UserActionAvro> records) {
+        for (ConsumerRecord<Long, UserActionAvro> record : records) {
+
+            log.info("Получено сообщение: topic = {}, partition = {}, offset = {}, value = {}",
+                    record.topic(), record.partition(), record.offset(), record.value());
+
+            similarityService.updateSimilarity(record.value(), eventSimilarity -> {
+                if (updateFilter.offer(eventSimilarity)) {
+                    send(eventSimilarity);
+                    log.info("Схожесть для событий ID {} и ID {} отправлено в topic {}",
+                            eventSimilarity.getEventA(), eventSimilarity.getEventB(),
+                            kafkaConfig.getEventsSimilarityTopic());
+                }
+            });
+            manageOffsets(record);
+        }
+    }
+
+    /**
+     * Применяет все записи poll-а, запоминает изменившиеся пары и отправляет их одним пакетом,
+     * пересчитав оценки под блокировками пар: значение, посчитанное в начале пакета, не может
+     * уйти позже более свежего значения другого воркера. Оффсеты пакета попадают в currentOffsets только после подтверждения всего
+     * пакета брокером; при ошибке они не фиксируются нигде.
+     */
+    private void processBatch(ConsumerRecords<Long, UserActionAvro> records)
+            throws ExecutionException, InterruptedException {
+        Map<Long, EventSimilarityAvro> batch = new LinkedHashMap<>();
+        Map<TopicPartition, OffsetAndMetadata> batchOffsets = new HashMap<>();
+        for (ConsumerRecord<Long, UserActionAvro> record : records) {
+            log.debug("Получено сообщение: topic = {}, partition = {}, offset = {}, value = {}",
+                    record.topic(), record.partition(), record.offset(), record.value());
+
+            similarityService.updateSimilarity(record.value(), eventSimilarity -> batch.put(
+                    StateKeys.pair(eventSimilarity.getEventA(), eventSimilarity.getEventB()), eventSimilarity));
+            batchOffsets.put(new TopicPartition(record.topic(), record.partition()),
+                    new OffsetAndMetadata(record.offset() + 1));
+        }
+
+        List<Future<RecordMetadata>> acks = new ArrayList<>(batch.size());
+        similarityService.republish(batch.values(), eventSimilarity -> {
+            if (updateFilter.offer(eventSimilarity)) {
+                acks.add(send(eventSimilarity));
+            }
+        });
+        for (Future<RecordMetadata> ack : acks) {
+            ack.get();
+        }
+        log.info("Пакет обработан: действий = {}, отправлено схожестей = {}", records.count(), acks.size());
+
+        currentOffsets.putAll(batchOffsets);
+        uncommitted = true;
+    }
+
+    /**
+     * Отправляет подавленные фильтром пары с оценками, пересчитанными на момент отправки;
+     * подтверждения дожидается {@link #commitOffsets}.
+     */
+    private void publishPending() {
+        List<EventSimilarityAvro> pending = updateFilter.drain();
+        similarityService.republish(pending, eventSimilarity -> {
+            updateFilter.published(eventSimilarity);
+            send(eventSimilarity);
+        });
+        if (!pending.isEmpty()) {
+            log.info("Воркер {} отправил {} накопленных схожестей", name, pending.size());
+        }
+    }
+
+    /**
+     * Ошибка отправки запоминается и не даёт зафиксировать оффсеты, см. {@link #commitOffsets}.
+     */
+    private Future<RecordMetadata> send(EventSimilarityAvro eventSimilarity) {
+        ProducerRecord<Long, SpecificRecordBase> producerRecord = new ProducerRecord<>(
+                kafkaConfig.getEventsSimilarityTopic(),
+                null,
+                eventSimilarity.getTimestamp().toEpochMilli(),
+                eventSimilarity.getEventA(),
+                eventSimilarity);
+        return producer.send(producerRecord, (metadata, exception) -> {
+            if (exception != null && sendError.compareAndSet(null, exception)) {
+                log.error("Воркер {}: схожесть не отправлена, topic: {}", name, producerRecord.topic(), exception);
+            }
+        });
+    }
+
+    private void manageOffsets(ConsumerRecord<Long, UserActionAvro> record) {
+        currentOffsets.put(
+                new TopicPartition(record.topic(), record.partition()),
+                new OffsetAndMetadata(record.offset() + 1)
+        );
+        uncommitted = true;
+    }
+
+    private void commitOffsetsIfDue() throws ExecutionException, InterruptedException {
+        long now = System.nanoTime();
+        if (!uncommitted
+                || (now - lastCommit < updateFilter.commitIntervalNanos() && !updateFilter.isFlushRequested())) {
+            return;
+        }
+        commitOffsets(currentOffsets, ownedShards, kafkaConfig.isBatchMode());
+    }
+
+    /**
+     * Порядок фиксации: все схожести, включая подавленные фильтром, подтверждены брокером, затем
+     * изменения пользователей шардов записаны в changelog, и только потом фиксируются оффсеты.
+     * Поэтому в changelog не попадает действие без доставленного результата, а в оффсеты — действие
+     * без сохранённого состояния.
+     */
+    private void commitOffsets(Map<TopicPartition, OffsetAndMetadata> offsets, int[] shards, boolean sync)
+            throws ExecutionException, InterruptedException {
+        publishPending();
+        producer.flush();
+        Exception error = sendError.get();
+        if (error != null) {
+            throw new ExecutionException("Схожести не подтверждены брокером", error);
+        }
+        stateStore.flush(shards);
+        if (sync) {
+            consumer.commitSync(offsets);
+        } else {
+            consumer.commitAsync(offsets, (committed, exception) -> {
+                if (exception != null) {
+                    log.warn("Ошибка фиксации оффсетов: {}", committed, exception);
+                }
+            });
+        }
+        uncommitted = false;
+        lastCommit = System.nanoTime();
+    }
+
+    /**
+     * Передача шарда при ребалансировке: перед отдачей партиции воркер дописывает её изменения
+     * и синхронно фиксирует оффсет, так что новый владелец продолжает ровно с того же места
+     * и работает с тем же шардом состояния. Передача работает только между воркерами одного
+     * процесса: при назначении партиции состояние из changelog не загружается.
+     */
+    private class ShardHandoffListener implements ConsumerRebalanceListener {
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            if (partitions.isEmpty()) {
+                return;
+            }
+            Set<TopicPartition> owned = new HashSet<>(consumer.assignment());
+            owned.removeAll(partitions);
+            ownedShards = shardsOf(owned);
+            Map<TopicPartition, OffsetAndMetadata> revoked = new HashMap<>();
+            for (TopicPartition partition : partitions) {
+                OffsetAndMetadata offset = currentOffsets.remove(partition);
+                if (offset != null) {
+                    revoked.put(partition, offset);
+                }
+            }
+            try {
+                commitOffsets(revoked, shardsOf(partitions), true);
+            } catch (ExecutionException e) {
+                throw new KafkaException("Накопленные схожести не отправлены перед передачей партиций", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptException(e);
+            }
+            // Оффсеты оставшихся партиций фиксируются в обычном порядке
+            uncommitted = !currentOffsets.isEmpty();
+            log.info("Воркер {} передал партиции {}", name, partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            ownedShards = shardsOf(consumer.assignment());
+            if (!partitions.isEmpty()) {
+                log.info("Воркер {} получил партиции {}", name, partitions);
+            }
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package ru.practicum.aggregator.stats;
 
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
 import org.springframework.context.ConfigurableApplicationContext;
 
+@Slf4j
 @EnableDiscoveryClient
 @SpringBootApplication
 @ConfigurationPropertiesScan
@@ -13,6 +15,12 @@ public class AggregatorApplication {
     public static void main(String[] args) {
         ConfigurableApplicationContext context = SpringApplication.run(AggregatorApplication.class, args);
         AggregationStarter aggregationStarter = context.getBean(AggregationStarter.class);
+        try {
+            aggregationStarter.checkPartitions();
+        } catch (IllegalStateException e) {
+            log.error("Агрегатор не запущен: {}", e.getMessage());
+            System.exit(SpringApplication.exit(context, () -> 1));
+        }
 
         Runtime.getRuntime().addShutdownHook(new Thread(aggregationStarter::stop));
 
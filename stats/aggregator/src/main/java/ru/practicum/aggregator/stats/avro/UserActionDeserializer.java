@@ -1,9 +0,0 @@
-package ru.practicum.aggregator.stats.avro;
-
-import ru.practicum.stats.avro.UserActionAvro;
-
-public class UserActionDeserializer extends BaseAvroDeserializer<UserActionAvro> {
-    public UserActionDeserializer() {
-        super(UserActionAvro.getClassSchema());
-    }
-}
@@ -4,6 +4,7 @@ import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
+import ru.practicum.stats.kafka.ProducerProfile;
 
 import java.util.Properties;
 
@@ -12,8 +13,18 @@ import java.util.Properties;
 @Component
 @ConfigurationProperties("aggregator.kafka")
 public class KafkaConfigProperties {
+    private ProducerProfile producerProfile;
     private Properties producerProps;
     private Properties consumerProps;
     private String userActionsTopic;
     private String eventsSimilarityTopic;
+    private int workers = 1;
+    private int userActionsPartitions = 1;
+    private boolean batchMode;
+    private boolean changelogEnabled;
+    private String changelogTopic;
+    private int changelogPartitions = 8;
+    private Short changelogReplicationFactor;
+    private Properties changelogProducerProps;
+    private Properties changelogConsumerProps;
 }
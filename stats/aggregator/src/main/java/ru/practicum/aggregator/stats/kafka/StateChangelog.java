@@ -0,0 +1,259 @@
+package ru.practicum.aggregator.stats.kafka;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.common.errors.TopicExistsException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.aggregator.stats.service.SimilarityStateStore;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Журнал изменений состояния агрегатора в compacted-топике. Ключ записи — тип и идентификаторы
+ * элемента состояния, значение — его актуальное значение, поэтому после компакции в топике
+ * остаётся ровно по одной записи на элемент. Сохраняются веса пользователей и время последнего
+ * взаимодействия с событиями; записи сумм, оставшиеся от прежних версий, при восстановлении
+ * пропускаются и удаляются tombstone-ами.
+ * <p>
+ * Ошибка отправки запоминается и выбрасывается из {@link #flush()}, то есть до фиксации оффсетов:
+ * после неё состояние в топике неполно, поэтому все последующие вызовы flush() тоже падают.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "aggregator.kafka", name = "changelog-enabled", havingValue = "true")
+public class StateChangelog {
+
+    private static final byte USER_WEIGHT = 1;
+    private static final byte EVENT_WEIGHT_SUM = 2;
+    private static final byte MIN_WEIGHT_SUM = 3;
+    private static final byte EVENT_LAST_SEEN = 4;
+    private static final int KEY_SIZE = 1 + 2 * Long.BYTES;
+
+    private final KafkaConfigProperties kafkaConfig;
+    private final KafkaProducer<byte[], byte[]> producer;
+    private final AtomicReference<Exception> sendError = new AtomicReference<>();
+
+    public StateChangelog(KafkaConfigProperties kafkaConfig) {
+        this.kafkaConfig = kafkaConfig;
+        createTopicIfMissing();
+        this.producer = new KafkaProducer<>(kafkaConfig.getChangelogProducerProps());
+    }
+
+    public void userWeight(long eventId, long userId, double weight) {
+        send(USER_WEIGHT, eventId, userId, toBytes(weight));
+    }
+
+    public void userWeightRemoved(long eventId, long userId) {
+        send(USER_WEIGHT, eventId, userId, null);
+    }
+
+    public void eventLastSeen(long eventId, long timestamp) {
+        send(EVENT_LAST_SEEN, eventId, 0, ByteBuffer.allocate(Long.BYTES).putLong(timestamp).array());
+    }
+
+    public void eventLastSeenRemoved(long eventId) {
+        send(EVENT_LAST_SEEN, eventId, 0, null);
+    }
+
+    /**
+     * Дожидается отправки всех записей.
+     *
+     * @throws IllegalStateException если какая-либо запись не сохранена в топике
+     */
+    public void flush() {
+        producer.flush();
+        Exception error = sendError.get();
+        if (error != null) {
+            throw new IllegalStateException("Changelog " + kafkaConfig.getChangelogTopic()
+                    + ": изменения состояния не сохранены", error);
+        }
+    }
+
+    /**
+     * Читает топик с начала до текущего конца, по потоку на партицию, и применяет записи к target.
+     *
+     * @return пользователи, веса которых восстановлены, без повторов
+     */
+    public long[] restore(SimilarityStateStore target) {
+        List<PartitionInfo> partitions;
+        try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(kafkaConfig.getChangelogConsumerProps())) {
+            partitions = consumer.partitionsFor(kafkaConfig.getChangelogTopic());
+        }
+        if (partitions == null || partitions.isEmpty()) {
+            log.info("Changelog {} пуст, восстановление не требуется", kafkaConfig.getChangelogTopic());
+            return new long[0];
+        }
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(partitions.size());
+        try {
+            List<Future<RestoredPartition>> results = new ArrayList<>();
+            for (PartitionInfo partition : partitions) {
+                TopicPartition topicPartition = new TopicPartition(partition.topic(), partition.partition());
+                results.add(executor.submit(() -> restorePartition(topicPartition, target)));
+            }
+            long restored = 0;
+            long[] users = new long[0];
+            for (Future<RestoredPartition> result : results) {
+                RestoredPartition partition = result.get();
+                restored += partition.records();
+                int offset = users.length;
+                users = Arrays.copyOf(users, offset + partition.users().length);
+                System.arraycopy(partition.users(), 0, users, offset, partition.users().length);
+            }
+            users = distinct(users);
+            log.info("Состояние восстановлено из changelog: записей = {}, пользователей = {}, партиций = {}, за {} мс",
+                    restored, users.length, partitions.size(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+            return users;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Восстановление состояния прервано", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка восстановления состояния из changelog", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        producer.flush();
+        producer.close();
+    }
+
+    private RestoredPartition restorePartition(TopicPartition partition, SimilarityStateStore target) {
+        try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(kafkaConfig.getChangelogConsumerProps())) {
+            consumer.assign(List.of(partition));
+            consumer.seekToBeginning(List.of(partition));
+            long endOffset = consumer.endOffsets(List.of(partition)).get(partition);
+
+            long count = 0;
+            long[] users = new long[1 << 10];
+            int userCount = 0;
+            while (consumer.position(partition) < endOffset) {
+                List<ConsumerRecord<byte[], byte[]>> records = consumer.poll(Duration.ofMillis(500)).records(partition);
+                synchronized (target) {
+                    for (ConsumerRecord<byte[], byte[]> record : records) {
+                        long userId = apply(record, target);
+                        if (userId >= 0) {
+                            if (userCount == users.length) {
+                                users = Arrays.copyOf(users, userCount << 1);
+                            }
+                            users[userCount++] = userId;
+                        }
+                    }
+                }
+                count += records.size();
+            }
+            log.debug("Партиция {} changelog восстановлена: {} записей", partition, count);
+            return new RestoredPartition(count, distinct(Arrays.copyOf(users, userCount)));
+        }
+    }
+
+    /**
+     * @return пользователь, вес которого записан, иначе -1
+     */
+    private long apply(ConsumerRecord<byte[], byte[]> record, SimilarityStateStore target) {
+        ByteBuffer key = ByteBuffer.wrap(record.key());
+        byte type = key.get();
+        long first = key.getLong();
+        long second = key.getLong();
+
+        // Элементы разных типов лежат в разных партициях и восстанавливаются параллельно,
+        // поэтому tombstone удаляет только свой элемент
+        if (record.value() == null) {
+            switch (type) {
+                case USER_WEIGHT -> target.removeUserWeight(first, second);
+                case EVENT_LAST_SEEN -> target.removeEventLastSeen(first);
+                case EVENT_WEIGHT_SUM, MIN_WEIGHT_SUM -> {
+                }
+                default -> log.warn("Неизвестный тип записи changelog: {}", type);
+            }
+            return -1;
+        }
+
+        ByteBuffer value = ByteBuffer.wrap(record.value());
+        switch (type) {
+            case USER_WEIGHT -> {
+                target.putUserWeight(first, second, value.getDouble());
+                return second;
+            }
+            case EVENT_LAST_SEEN -> target.touchEvent(first, value.getLong());
+            // Суммы пересчитываются по весам, запись прежней версии удаляется
+            case EVENT_WEIGHT_SUM, MIN_WEIGHT_SUM -> send(type, first, second, null);
+            default -> log.warn("Неизвестный тип записи changelog: {}", type);
+        }
+        return -1;
+    }
+
+    private static long[] distinct(long[] values) {
+        Arrays.sort(values);
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i == 0 || values[i] != values[i - 1]) {
+                values[size++] = values[i];
+            }
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+    private static byte[] toBytes(double value) {
+        return ByteBuffer.allocate(Double.BYTES).putDouble(value).array();
+    }
+
+    private record RestoredPartition(long records, long[] users) {
+    }
+
+    private void send(byte type, long first, long second, byte[] payload) {
+        byte[] key = ByteBuffer.allocate(KEY_SIZE).put(type).putLong(first).putLong(second).array();
+        producer.send(new ProducerRecord<>(kafkaConfig.getChangelogTopic(), key, payload), (metadata, exception) -> {
+            if (exception != null && sendError.compareAndSet(null, exception)) {
+                log.error("Changelog: запись не отправлена, topic: {}", kafkaConfig.getChangelogTopic(), exception);
+            }
+        });
+    }
+
+    private void createTopicIfMissing() {
+        Properties adminProps = new Properties();
+        adminProps.put(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG,
+                kafkaConfig.getChangelogProducerProps().getProperty(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG));
+        try (Admin admin = Admin.create(adminProps)) {
+            // Без явного фактора репликации топик создаётся с default.replication.factor кластера
+            NewTopic topic = new NewTopic(kafkaConfig.getChangelogTopic(),
+                    Optional.of(kafkaConfig.getChangelogPartitions()),
+                    Optional.ofNullable(kafkaConfig.getChangelogReplicationFactor()))
+                    .configs(Map.of(TopicConfig.CLEANUP_POLICY_CONFIG, TopicConfig.CLEANUP_POLICY_COMPACT));
+            admin.createTopics(List.of(topic)).all().get();
+            log.info("Создан compacted-топик {}", topic.name());
+        } catch (ExecutionException e) {
+            if (!(e.getCause() instanceof TopicExistsException)) {
+                log.warn("Не удалось создать топик {}", kafkaConfig.getChangelogTopic(), e.getCause());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
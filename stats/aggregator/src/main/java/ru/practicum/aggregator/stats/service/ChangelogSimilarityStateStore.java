@@ -0,0 +1,289 @@
+package ru.practicum.aggregator.stats.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import ru.practicum.aggregator.stats.kafka.StateChangelog;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Хранилище, сохраняющее состояние в {@link StateChangelog}. В changelog пишутся только веса
+ * пользователей и время последнего взаимодействия с событиями. Суммы весов событий и суммы
+ * минимальных весов пар складываются из весов пользователей всех шардов, поэтому не сохраняются,
+ * а пересчитываются из весов при восстановлении.
+ * <p>
+ * Изменения весов копятся в памяти по шардам пользователей и уходят в changelog только в
+ * {@link #flush(int[])}, который воркер вызывает после подтверждения всех своих схожестей и перед
+ * фиксацией оффсетов. Вес пользователя меняет только воркер-владелец шарда, так что в changelog
+ * не попадает действие, результат которого мог не дойти до брокера: после падения такое действие
+ * перечитывается и пересчитывается на состоянии без него. Время последнего взаимодействия
+ * сохраняется при любом flush: опережение влияет только на момент вытеснения.
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(prefix = "aggregator.kafka", name = "changelog-enabled", havingValue = "true")
+public class ChangelogSimilarityStateStore implements SimilarityStateStore {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final double REMOVED_WEIGHT = 0;
+    private static final long REMOVED_LAST_SEEN = Long.MIN_VALUE;
+
+    private final SimilarityStateStore delegate;
+    private final StateChangelog changelog;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final LongDoubleHashMap[] weightChanges;
+    private final LongLongHashMap lastSeenChanges = new LongLongHashMap(1 << 10);
+
+    public ChangelogSimilarityStateStore(@Qualifier("baseSimilarityStateStore") SimilarityStateStore delegate,
+                                         StateChangelog changelog) {
+        this.delegate = delegate;
+        this.changelog = changelog;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        this.weightChanges = new LongDoubleHashMap[delegate.shardCount()];
+        for (int i = 0; i < weightChanges.length; i++) {
+            weightChanges[i] = new LongDoubleHashMap(1 << 10);
+        }
+    }
+
+    @Override
+    public int shardCount() {
+        return delegate.shardCount();
+    }
+
+    @Override
+    public int userShard(long userId) {
+        return delegate.userShard(userId);
+    }
+
+    @Override
+    public double getUserWeight(long eventId, long userId) {
+        return delegate.getUserWeight(eventId, userId);
+    }
+
+    @Override
+    public void putUserWeight(long eventId, long userId, double weight) {
+        delegate.putUserWeight(eventId, userId, weight);
+        weightChanged(eventId, userId, weight);
+    }
+
+    @Override
+    public void removeUserWeight(long eventId, long userId) {
+        delegate.removeUserWeight(eventId, userId);
+        weightChanged(eventId, userId, REMOVED_WEIGHT);
+    }
+
+    @Override
+    public long[] getUserEvents(long userId) {
+        return delegate.getUserEvents(userId);
+    }
+
+    @Override
+    public long[] getEventUsers(long eventId) {
+        return delegate.getEventUsers(eventId);
+    }
+
+    @Override
+    public double getEventWeightSum(long eventId) {
+        return delegate.getEventWeightSum(eventId);
+    }
+
+    @Override
+    public double addEventWeightSum(long eventId, double delta) {
+        return delegate.addEventWeightSum(eventId, delta);
+    }
+
+    @Override
+    public void putEventWeightSum(long eventId, double sum) {
+        delegate.putEventWeightSum(eventId, sum);
+    }
+
+    @Override
+    public long touchEvent(long eventId, long timestamp) {
+        synchronized (lockFor(eventId)) {
+            long lastSeen = delegate.touchEvent(eventId, timestamp);
+            if (lastSeen == timestamp) {
+                lastSeenChanged(eventId, lastSeen);
+            }
+            return lastSeen;
+        }
+    }
+
+    @Override
+    public void removeEventWeightSum(long eventId) {
+        delegate.removeEventWeightSum(eventId);
+    }
+
+    @Override
+    public long getEventLastSeen(long eventId) {
+        return delegate.getEventLastSeen(eventId);
+    }
+
+    @Override
+    public void removeEventLastSeen(long eventId) {
+        synchronized (lockFor(eventId)) {
+            delegate.removeEventLastSeen(eventId);
+            lastSeenChanged(eventId, REMOVED_LAST_SEEN);
+        }
+    }
+
+    @Override
+    public long[] pollExpiredEvents(long cutoff, int limit) {
+        return delegate.pollExpiredEvents(cutoff, limit);
+    }
+
+    @Override
+    public double getMinWeightSum(long eventA, long eventB) {
+        return delegate.getMinWeightSum(eventA, eventB);
+    }
+
+    @Override
+    public double addMinWeightSum(long eventA, long eventB, double delta) {
+        return delegate.addMinWeightSum(eventA, eventB, delta);
+    }
+
+    @Override
+    public void putMinWeightSum(long eventA, long eventB, double sum) {
+        delegate.putMinWeightSum(eventA, eventB, sum);
+    }
+
+    @Override
+    public void removeMinWeightSum(long eventA, long eventB) {
+        delegate.removeMinWeightSum(eventA, eventB);
+    }
+
+    /**
+     * Загружает веса и время последнего взаимодействия из changelog, затем пересчитывает по весам
+     * суммы событий и пар. Пары, удалённые из состояния отсечением соседей, при этом возвращаются
+     * и отсекаются заново по мере обновлений.
+     */
+    @Override
+    public void restore() {
+        long[] users = changelog.restore(delegate);
+        long start = System.nanoTime();
+        int shardCount = delegate.shardCount();
+        if (shardCount == 1) {
+            for (long userId : users) {
+                addUserSums(userId);
+            }
+        } else {
+            rebuildInParallel(users, shardCount);
+        }
+        log.info("Суммы состояния пересчитаны по весам {} пользователей за {} мс",
+                users.length, Duration.ofNanos(System.nanoTime() - start).toMillis());
+    }
+
+    @Override
+    public void flush(int[] shards) {
+        for (int shard : shards) {
+            LongDoubleHashMap changes = weightChanges[shard];
+            synchronized (changes) {
+                changes.forEach((key, weight) -> {
+                    if (weight == REMOVED_WEIGHT) {
+                        changelog.userWeightRemoved(StateKeys.high(key), StateKeys.low(key));
+                    } else {
+                        changelog.userWeight(StateKeys.high(key), StateKeys.low(key), weight);
+                    }
+                });
+                changes.clear();
+            }
+        }
+        synchronized (lastSeenChanges) {
+            lastSeenChanges.forEach((eventId, lastSeen) -> {
+                if (lastSeen == REMOVED_LAST_SEEN) {
+                    changelog.eventLastSeenRemoved(eventId);
+                } else {
+                    changelog.eventLastSeen(eventId, lastSeen);
+                }
+            });
+            lastSeenChanges.clear();
+        }
+        changelog.flush();
+    }
+
+    private void weightChanged(long eventId, long userId, double weight) {
+        LongDoubleHashMap changes = weightChanges[delegate.userShard(userId)];
+        synchronized (changes) {
+            changes.put(StateKeys.pack(eventId, userId), weight);
+        }
+    }
+
+    private void lastSeenChanged(long eventId, long lastSeen) {
+        synchronized (lastSeenChanges) {
+            lastSeenChanges.put(eventId, lastSeen);
+        }
+    }
+
+    /**
+     * Шарды пересчитываются параллельно: суммы шардированы по ключу и защищены блокировками шардов.
+     */
+    private void rebuildInParallel(long[] users, int shardCount) {
+        int[] counts = new int[shardCount];
+        for (long userId : users) {
+            counts[delegate.userShard(userId)]++;
+        }
+        long[][] usersByShard = new long[shardCount][];
+        for (int shard = 0; shard < shardCount; shard++) {
+            usersByShard[shard] = new long[counts[shard]];
+        }
+        Arrays.fill(counts, 0);
+        for (long userId : users) {
+            int shard = delegate.userShard(userId);
+            usersByShard[shard][counts[shard]++] = userId;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(shardCount, Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<?>> results = new ArrayList<>(shardCount);
+            for (long[] shardUsers : usersByShard) {
+                results.add(executor.submit(() -> {
+                    for (long userId : shardUsers) {
+                        addUserSums(userId);
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Пересчёт сумм состояния прерван", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка пересчёта сумм состояния", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void addUserSums(long userId) {
+        long[] events = delegate.getUserEvents(userId);
+        double[] weights = new double[events.length];
+        for (int i = 0; i < events.length; i++) {
+            weights[i] = delegate.getUserWeight(events[i], userId);
+            delegate.addEventWeightSum(events[i], weights[i]);
+        }
+        for (int i = 0; i < events.length; i++) {
+            for (int j = i + 1; j < events.length; j++) {
+                delegate.addMinWeightSum(events[i], events[j], Math.min(weights[i], weights[j]));
+            }
+        }
+    }
+
+    private Object lockFor(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return locks[(int) (hash >>> 58)];
+    }
+}
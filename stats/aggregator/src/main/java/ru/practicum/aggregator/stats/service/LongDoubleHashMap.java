@@ -0,0 +1,88 @@
+package ru.practicum.aggregator.stats.service;
+
+import java.util.Arrays;
+
+/**
+ * Отображение long -> double без упаковки: 16 байт на ячейку таблицы.
+ */
+public final class LongDoubleHashMap extends LongHashTable {
+
+    private double[] values;
+
+    public LongDoubleHashMap() {
+        this(16);
+    }
+
+    public LongDoubleHashMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    public double get(long key, double defaultValue) {
+        int index = indexOf(key);
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    public void put(long key, double value) {
+        int index = insert(key);
+        values[index < 0 ? -index - 1 : index] = value;
+    }
+
+    /**
+     * Прибавляет delta к значению ключа (отсутствующий ключ считается нулём).
+     *
+     * @return новое значение
+     */
+    public double add(long key, double delta) {
+        int index = insert(key);
+        if (index < 0) {
+            index = -index - 1;
+            values[index] = delta;
+        } else {
+            values[index] += delta;
+        }
+        return values[index];
+    }
+
+    public void forEach(EntryConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, double value);
+    }
+
+    @Override
+    protected void allocateValues(int capacity) {
+        values = new double[capacity];
+    }
+
+    @Override
+    protected Object values() {
+        return values;
+    }
+
+    @Override
+    protected void copyValue(Object source, int from, int to) {
+        values[to] = ((double[]) source)[from];
+    }
+
+    @Override
+    protected void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    protected void clearValue(int index) {
+        values[index] = 0;
+    }
+
+    @Override
+    protected void clearValues() {
+        Arrays.fill(values, 0);
+    }
+}
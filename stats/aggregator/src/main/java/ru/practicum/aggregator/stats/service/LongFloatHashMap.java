@@ -0,0 +1,64 @@
+package ru.practicum.aggregator.stats.service;
+
+import java.util.Arrays;
+
+/**
+ * Отображение long -> float без упаковки: 12 байт на ячейку таблицы.
+ */
+public final class LongFloatHashMap extends LongHashTable {
+
+    private float[] values;
+
+    public LongFloatHashMap() {
+        this(16);
+    }
+
+    public LongFloatHashMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    public float get(long key, float defaultValue) {
+        int index = indexOf(key);
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    /**
+     * @return true, если ключ добавлен впервые
+     */
+    public boolean put(long key, float value) {
+        int index = insert(key);
+        boolean added = index < 0;
+        values[added ? -index - 1 : index] = value;
+        return added;
+    }
+
+    @Override
+    protected void allocateValues(int capacity) {
+        values = new float[capacity];
+    }
+
+    @Override
+    protected Object values() {
+        return values;
+    }
+
+    @Override
+    protected void copyValue(Object source, int from, int to) {
+        values[to] = ((float[]) source)[from];
+    }
+
+    @Override
+    protected void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    protected void clearValue(int index) {
+        values[index] = 0;
+    }
+
+    @Override
+    protected void clearValues() {
+        Arrays.fill(values, 0);
+    }
+}
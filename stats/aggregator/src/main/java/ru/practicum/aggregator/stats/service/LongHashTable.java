@@ -0,0 +1,171 @@
+package ru.practicum.aggregator.stats.service;
+
+import java.util.Arrays;
+
+/**
+ * Основа для хэш-таблиц с примитивными long-ключами: открытая адресация, линейное пробирование,
+ * удаление сдвигом назад (без tombstone-ов). Значение {@link #EMPTY} ключом быть не может.
+ */
+abstract class LongHashTable {
+
+    protected static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int MIN_CAPACITY = 16;
+
+    protected long[] keys;
+    private int mask;
+    private int size;
+    private int threshold;
+
+    protected LongHashTable(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public final int size() {
+        return size;
+    }
+
+    public final boolean isEmpty() {
+        return size == 0;
+    }
+
+    public final int capacity() {
+        return keys.length;
+    }
+
+    public final boolean containsKey(long key) {
+        return indexOf(key) >= 0;
+    }
+
+    public final boolean remove(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return false;
+        }
+        removeAt(index);
+        return true;
+    }
+
+    public final void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+        clearValues();
+    }
+
+    protected final int indexOf(long key) {
+        checkKey(key);
+        int index = slot(key);
+        while (true) {
+            long current = keys[index];
+            if (current == key) {
+                return index;
+            }
+            if (current == EMPTY) {
+                return -1;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Возвращает индекс ячейки для ключа, добавляя его при отсутствии.
+     * Для нового ключа возвращается {@code -(index + 1)}.
+     */
+    protected final int insert(long key) {
+        checkKey(key);
+        if (size >= threshold) {
+            grow();
+        }
+        int index = slot(key);
+        while (true) {
+            long current = keys[index];
+            if (current == key) {
+                return index;
+            }
+            if (current == EMPTY) {
+                keys[index] = key;
+                size++;
+                return -(index + 1);
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    protected final void removeAt(int index) {
+        int gap = index;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            long key = keys[next];
+            if (key == EMPTY) {
+                break;
+            }
+            int ideal = slot(key);
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = key;
+                moveValue(next, gap);
+                gap = next;
+            }
+        }
+        keys[gap] = EMPTY;
+        clearValue(gap);
+        size--;
+    }
+
+    protected abstract void allocateValues(int capacity);
+
+    protected abstract Object values();
+
+    protected abstract void copyValue(Object source, int from, int to);
+
+    protected abstract void moveValue(int from, int to);
+
+    protected abstract void clearValue(int index);
+
+    protected abstract void clearValues();
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Object oldValues = values();
+        int oldSize = size;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key == EMPTY) {
+                continue;
+            }
+            int index = slot(key);
+            while (keys[index] != EMPTY) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = key;
+            copyValue(oldValues, i, index);
+        }
+        size = oldSize;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+        size = 0;
+        allocateValues(capacity);
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static void checkKey(long key) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Недопустимый ключ: " + key);
+        }
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int required = (int) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR);
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(required - 1) << 1);
+    }
+}
@@ -0,0 +1,88 @@
+package ru.practicum.aggregator.stats.service;
+
+import java.util.Arrays;
+
+/**
+ * Отображение long -> long без упаковки: 16 байт на ячейку таблицы.
+ */
+public final class LongLongHashMap extends LongHashTable {
+
+    private long[] values;
+
+    public LongLongHashMap() {
+        this(16);
+    }
+
+    public LongLongHashMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    public long get(long key, long defaultValue) {
+        int index = indexOf(key);
+        return index < 0 ? defaultValue : values[index];
+    }
+
+    public void put(long key, long value) {
+        int index = insert(key);
+        values[index < 0 ? -index - 1 : index] = value;
+    }
+
+    /**
+     * Записывает максимум из текущего значения ключа и value.
+     *
+     * @return новое значение
+     */
+    public long putMax(long key, long value) {
+        int index = insert(key);
+        if (index < 0) {
+            index = -index - 1;
+            values[index] = value;
+        } else if (values[index] < value) {
+            values[index] = value;
+        }
+        return values[index];
+    }
+
+    public void forEach(EntryConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                action.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, long value);
+    }
+
+    @Override
+    protected void allocateValues(int capacity) {
+        values = new long[capacity];
+    }
+
+    @Override
+    protected Object values() {
+        return values;
+    }
+
+    @Override
+    protected void copyValue(Object source, int from, int to) {
+        values[to] = ((long[]) source)[from];
+    }
+
+    @Override
+    protected void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    protected void clearValue(int index) {
+        values[index] = 0;
+    }
+
+    @Override
+    protected void clearValues() {
+        Arrays.fill(values, 0);
+    }
+}
@@ -0,0 +1,70 @@
+package ru.practicum.aggregator.stats.service;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Отображение long -> объект без упаковки ключей.
+ */
+public final class LongObjectHashMap<V> extends LongHashTable {
+
+    private Object[] values;
+
+    public LongObjectHashMap() {
+        this(16);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        super(expectedSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) values[index];
+    }
+
+    public void put(long key, V value) {
+        int index = insert(key);
+        values[index < 0 ? -index - 1 : index] = value;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                action.accept((V) values[i]);
+            }
+        }
+    }
+
+    @Override
+    protected void allocateValues(int capacity) {
+        values = new Object[capacity];
+    }
+
+    @Override
+    protected Object values() {
+        return values;
+    }
+
+    @Override
+    protected void copyValue(Object source, int from, int to) {
+        values[to] = ((Object[]) source)[from];
+    }
+
+    @Override
+    protected void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    protected void clearValue(int index) {
+        values[index] = null;
+    }
+
+    @Override
+    protected void clearValues() {
+        Arrays.fill(values, null);
+    }
+}
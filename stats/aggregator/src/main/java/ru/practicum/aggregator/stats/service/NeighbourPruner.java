@@ -0,0 +1,200 @@
+package ru.practicum.aggregator.stats.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Хранит для каждого события только max-neighbours сильнейших соседей. Пара остаётся в состоянии,
+ * пока входит в топ хотя бы одного из своих событий; выпавшая из обоих топов пара удаляется из
+ * состояния, а вызывающий получает её через {@link PrunedPairs}, чтобы отозвать уже опубликованную
+ * оценку. Пара, не попавшая ни в один топ, не публиковалась и не отзывается. Если позже пара снова наберёт совместные взаимодействия,
+ * её сумма минимальных весов начнётся заново — это плата за линейный по числу событий объём
+ * состояния и выходного потока. Кучи не сохраняются в changelog и после рестарта заполняются
+ * заново по мере обновлений.
+ * <p>
+ * Кучи распределены по шардам по хэшу события, как суммы в {@link ShardedSimilarityStateStore}.
+ * Обновление пары берёт блокировки двух шардов её событий в порядке номеров шардов; принадлежность
+ * вытесненного соседа проверяется уже после их снятия.
+ */
+@Component
+public class NeighbourPruner {
+
+    private static final int SHARDS = 64;
+
+    private final int maxNeighbours;
+    private final SimilarityStateStore stateStore;
+    private final SimilarityUpdateFilter updateFilter;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final Counter prunedPairs;
+
+    public NeighbourPruner(SimilarityProperties properties, SimilarityStateStore stateStore,
+                           SimilarityUpdateFilter updateFilter, MeterRegistry meterRegistry) {
+        this.maxNeighbours = properties.getMaxNeighbours();
+        this.stateStore = stateStore;
+        this.updateFilter = updateFilter;
+        this.prunedPairs = meterRegistry.counter("aggregator.similarity.pruned.pairs");
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxNeighbours > 0;
+    }
+
+    /**
+     * Учитывает новую оценку пары.
+     *
+     * @param pruned получает ранее опубликованные пары, которые эта оценка вытеснила из обоих топов
+     * @return true, если пара входит в топ хотя бы одного из событий и её нужно публиковать
+     */
+    public boolean offer(long eventA, long eventB, double score, PrunedPairs pruned) {
+        if (!isEnabled()) {
+            return true;
+        }
+        Shard shardA = shardOf(eventA);
+        Shard shardB = shardOf(eventB);
+        long evictedByA;
+        long evictedByB;
+        lock(shardA, shardB);
+        try {
+            evictedByA = shardA.offerTo(eventA, eventB, (float) score);
+            evictedByB = shardB.offerTo(eventB, eventA, (float) score);
+        } finally {
+            unlock(shardA, shardB);
+        }
+        if (evictedByA == TopNeighbours.REJECTED && evictedByB == TopNeighbours.REJECTED) {
+            drop(eventA, eventB);
+            return false;
+        }
+        dropIfOrphaned(eventA, evictedByA, pruned);
+        dropIfOrphaned(eventB, evictedByB, pruned);
+        return true;
+    }
+
+    /**
+     * Убирает пару из топов обоих событий, не трогая состояние.
+     */
+    public void forget(long eventA, long eventB) {
+        if (!isEnabled()) {
+            return;
+        }
+        Shard shardA = shardOf(eventA);
+        Shard shardB = shardOf(eventB);
+        lock(shardA, shardB);
+        try {
+            shardA.removeFrom(eventA, eventB);
+            shardB.removeFrom(eventB, eventA);
+        } finally {
+            unlock(shardA, shardB);
+        }
+    }
+
+    public void forgetEvent(long eventId) {
+        if (!isEnabled()) {
+            return;
+        }
+        Shard shard = shardOf(eventId);
+        shard.lock.lock();
+        try {
+            shard.neighbours.remove(eventId);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Удаляет пару (eventId, evicted), если вытесненный из топа eventId сосед не держит её в своём топе.
+     */
+    private void dropIfOrphaned(long eventId, long evicted, PrunedPairs pruned) {
+        if (evicted < 0) {
+            return;
+        }
+        Shard shard = shardOf(evicted);
+        boolean kept;
+        shard.lock.lock();
+        try {
+            TopNeighbours evictedTop = shard.neighbours.get(evicted);
+            kept = evictedTop != null && evictedTop.contains(eventId);
+        } finally {
+            shard.lock.unlock();
+        }
+        if (!kept) {
+            drop(eventId, evicted);
+            pruned.pruned(eventId, evicted);
+        }
+    }
+
+    private void drop(long eventA, long eventB) {
+        stateStore.removeMinWeightSum(eventA, eventB);
+        updateFilter.forget(eventA, eventB);
+        prunedPairs.increment();
+    }
+
+    private Shard shardOf(long eventId) {
+        return shards[(int) ((eventId * 0x9E3779B97F4A7C15L) >>> 58)];
+    }
+
+    private void lock(Shard first, Shard second) {
+        if (first == second) {
+            first.lock.lock();
+        } else if (first.index < second.index) {
+            first.lock.lock();
+            second.lock.lock();
+        } else {
+            second.lock.lock();
+            first.lock.lock();
+        }
+    }
+
+    private void unlock(Shard first, Shard second) {
+        first.lock.unlock();
+        if (first != second) {
+            second.lock.unlock();
+        }
+    }
+
+    /**
+     * Получатель пар, удалённых из состояния после выпадения из топов обоих событий.
+     */
+    @FunctionalInterface
+    public interface PrunedPairs {
+        void pruned(long eventA, long eventB);
+    }
+
+    private final class Shard {
+
+        private final int index;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LongObjectHashMap<TopNeighbours> neighbours = new LongObjectHashMap<>(1 << 8);
+
+        private Shard(int index) {
+            this.index = index;
+        }
+
+        /**
+         * @return вытесненный сосед, {@link TopNeighbours#NONE} или {@link TopNeighbours#REJECTED}
+         */
+        long offerTo(long eventId, long neighbourId, float score) {
+            TopNeighbours top = neighbours.get(eventId);
+            if (top == null) {
+                top = new TopNeighbours(maxNeighbours);
+                neighbours.put(eventId, top);
+            }
+            return top.offer(neighbourId, score);
+        }
+
+        void removeFrom(long eventId, long neighbourId) {
+            TopNeighbours top = neighbours.get(eventId);
+            if (top != null) {
+                top.remove(neighbourId);
+                if (top.size() == 0) {
+                    neighbours.remove(eventId);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ru.practicum.aggregator.stats.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Хранилище на примитивных хэш-таблицах с открытой адресацией. Пары (событие, пользователь) и
+ * (событие A, событие B) упакованы в один long, веса пользователей хранятся как float.
+ * <p>
+ * Затраты памяти при заполнении таблиц от 37.5% до 75%: вес пользователя 16-32 байта на запись
+ * плюс по 8 байт в индексах событий пользователя и пользователей события, сумма весов пары или
+ * события 21-43 байта. Для сравнения, запись вложенного {@code HashMap<Long, Double>} обходится
+ * примерно в 70-80 байт.
+ */
+public class PrimitiveSimilarityStateStore implements SimilarityStateStore {
+
+    private static final long BUCKET_MILLIS = 10 * 60 * 1000;
+    private static final double ZERO_SUM = 1e-9;
+
+    private final LongFloatHashMap userWeights = new LongFloatHashMap(1 << 16);
+    private final LongDoubleHashMap eventWeightSums = new LongDoubleHashMap(1 << 12);
+    private final LongDoubleHashMap minWeightSums = new LongDoubleHashMap(1 << 16);
+    private final LongObjectHashMap<long[]> userEvents = new LongObjectHashMap<>(1 << 12);
+    private final LongObjectHashMap<long[]> eventUsers = new LongObjectHashMap<>(1 << 12);
+    private final LongLongHashMap eventLastSeen = new LongLongHashMap(1 << 12);
+    // Корзины по времени последнего взаимодействия: событие попадает в корзину при каждом её смене
+    private final TreeMap<Long, long[]> lastSeenBuckets = new TreeMap<>();
+
+    @Override
+    public double getUserWeight(long eventId, long userId) {
+        return userWeights.get(StateKeys.pack(eventId, userId), 0f);
+    }
+
+    @Override
+    public void putUserWeight(long eventId, long userId, double weight) {
+        if (userWeights.put(StateKeys.pack(eventId, userId), (float) weight)) {
+            append(userEvents, userId, eventId);
+            append(eventUsers, eventId, userId);
+        }
+    }
+
+    @Override
+    public void removeUserWeight(long eventId, long userId) {
+        if (userWeights.remove(StateKeys.pack(eventId, userId))) {
+            removeFrom(userEvents, userId, eventId);
+            removeFrom(eventUsers, eventId, userId);
+        }
+    }
+
+    @Override
+    public long[] getUserEvents(long userId) {
+        return copy(userEvents.get(userId));
+    }
+
+    @Override
+    public long[] getEventUsers(long eventId) {
+        return copy(eventUsers.get(eventId));
+    }
+
+    @Override
+    public double getEventWeightSum(long eventId) {
+        return eventWeightSums.get(eventId, 0.0);
+    }
+
+    @Override
+    public double addEventWeightSum(long eventId, double delta) {
+        return removeIfZero(eventWeightSums, eventId, eventWeightSums.add(eventId, delta));
+    }
+
+    @Override
+    public void putEventWeightSum(long eventId, double sum) {
+        eventWeightSums.put(eventId, sum);
+    }
+
+    @Override
+    public long touchEvent(long eventId, long timestamp) {
+        long previous = eventLastSeen.get(eventId, Long.MIN_VALUE);
+        long lastSeen = eventLastSeen.putMax(eventId, timestamp);
+        long bucket = Math.floorDiv(lastSeen, BUCKET_MILLIS);
+        if (previous == Long.MIN_VALUE || Math.floorDiv(previous, BUCKET_MILLIS) != bucket) {
+            lastSeenBuckets.put(bucket, appendTo(lastSeenBuckets.get(bucket), eventId));
+        }
+        return lastSeen;
+    }
+
+    @Override
+    public void removeEventWeightSum(long eventId) {
+        eventWeightSums.remove(eventId);
+    }
+
+    @Override
+    public long getEventLastSeen(long eventId) {
+        return eventLastSeen.get(eventId, Long.MIN_VALUE);
+    }
+
+    @Override
+    public void removeEventLastSeen(long eventId) {
+        eventLastSeen.remove(eventId);
+    }
+
+    @Override
+    public long[] pollExpiredEvents(long cutoff, int limit) {
+        long[] expired = new long[1];
+        while (expired[0] < limit && !lastSeenBuckets.isEmpty()) {
+            Map.Entry<Long, long[]> first = lastSeenBuckets.firstEntry();
+            long bucket = first.getKey();
+            if ((bucket + 1) * BUCKET_MILLIS > cutoff) {
+                break;
+            }
+            long[] events = first.getValue();
+            while (events[0] > 0 && expired[0] < limit) {
+                long eventId = events[(int) events[0]--];
+                long lastSeen = eventLastSeen.get(eventId, Long.MIN_VALUE);
+                // Событие, которого коснулись позже, лежит и в более поздней корзине
+                if (lastSeen != Long.MIN_VALUE && Math.floorDiv(lastSeen, BUCKET_MILLIS) == bucket) {
+                    expired = appendTo(expired, eventId);
+                }
+            }
+            if (events[0] == 0) {
+                lastSeenBuckets.pollFirstEntry();
+            }
+        }
+        return copy(expired);
+    }
+
+    @Override
+    public double getMinWeightSum(long eventA, long eventB) {
+        return minWeightSums.get(StateKeys.pair(eventA, eventB), 0.0);
+    }
+
+    @Override
+    public double addMinWeightSum(long eventA, long eventB, double delta) {
+        long pair = StateKeys.pair(eventA, eventB);
+        return removeIfZero(minWeightSums, pair, minWeightSums.add(pair, delta));
+    }
+
+    @Override
+    public void putMinWeightSum(long eventA, long eventB, double sum) {
+        minWeightSums.put(StateKeys.pair(eventA, eventB), sum);
+    }
+
+    @Override
+    public void removeMinWeightSum(long eventA, long eventB) {
+        minWeightSums.remove(StateKeys.pair(eventA, eventB));
+    }
+
+    private static double removeIfZero(LongDoubleHashMap sums, long key, double sum) {
+        if (sum > ZERO_SUM) {
+            return sum;
+        }
+        sums.remove(key);
+        return 0;
+    }
+
+    // Списки идентификаторов хранятся в long[], нулевой элемент которого — количество элементов.
+    private static void append(LongObjectHashMap<long[]> index, long key, long value) {
+        index.put(key, appendTo(index.get(key), value));
+    }
+
+    private static long[] appendTo(long[] list, long value) {
+        if (list == null) {
+            list = new long[4];
+        } else if (list[0] + 1 == list.length) {
+            list = Arrays.copyOf(list, Math.max(4, list.length + (list.length >> 1)));
+        }
+        list[(int) ++list[0]] = value;
+        return list;
+    }
+
+    private static void removeFrom(LongObjectHashMap<long[]> index, long key, long value) {
+        long[] list = index.get(key);
+        if (list == null) {
+            return;
+        }
+        int size = (int) list[0];
+        for (int i = 1; i <= size; i++) {
+            if (list[i] == value) {
+                list[i] = list[size];
+                list[0] = size - 1;
+                break;
+            }
+        }
+        if (list[0] == 0) {
+            index.remove(key);
+        }
+    }
+
+    private static long[] copy(long[] list) {
+        return list == null ? new long[0] : Arrays.copyOfRange(list, 1, (int) list[0] + 1);
+    }
+}
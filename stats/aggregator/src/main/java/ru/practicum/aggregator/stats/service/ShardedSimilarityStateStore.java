@@ -0,0 +1,251 @@
+package ru.practicum.aggregator.stats.service;
+
+import org.apache.kafka.common.utils.Utils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Потокобезопасное хранилище из шардов {@link PrimitiveSimilarityStateStore}, по шарду на партицию
+ * топика user actions. Данные пользователя (веса и индекс событий) лежат в шарде той партиции,
+ * куда Kafka направляет записи с его ключом, поэтому с ними работает только воркер-владелец
+ * партиции. Суммы по событиям и парам общие для всех пользователей и распределены по шардам
+ * по хэшу ключа. Каждая операция берёт блокировку ровно одного шарда.
+ */
+public class ShardedSimilarityStateStore implements SimilarityStateStore {
+
+    private final PrimitiveSimilarityStateStore[] shards;
+    private final ReentrantLock[] locks;
+
+    public ShardedSimilarityStateStore(int shardCount) {
+        shards = new PrimitiveSimilarityStateStore[shardCount];
+        locks = new ReentrantLock[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new PrimitiveSimilarityStateStore();
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public int shardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Номер партиции для ключа userId так же, как его выбирает партиционер продюсера по умолчанию.
+     */
+    @Override
+    public int userShard(long userId) {
+        byte[] key = ByteBuffer.allocate(Long.BYTES).putLong(userId).array();
+        return Utils.toPositive(Utils.murmur2(key)) % shards.length;
+    }
+
+    @Override
+    public double getUserWeight(long eventId, long userId) {
+        int shard = userShard(userId);
+        locks[shard].lock();
+        try {
+            return shards[shard].getUserWeight(eventId, userId);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void putUserWeight(long eventId, long userId, double weight) {
+        int shard = userShard(userId);
+        locks[shard].lock();
+        try {
+            shards[shard].putUserWeight(eventId, userId, weight);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void removeUserWeight(long eventId, long userId) {
+        int shard = userShard(userId);
+        locks[shard].lock();
+        try {
+            shards[shard].removeUserWeight(eventId, userId);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public long[] getUserEvents(long userId) {
+        int shard = userShard(userId);
+        locks[shard].lock();
+        try {
+            return shards[shard].getUserEvents(userId);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public long[] getEventUsers(long eventId) {
+        // Пользователи события разнесены по шардам пользователей
+        long[] users = new long[0];
+        for (int shard = 0; shard < shards.length; shard++) {
+            locks[shard].lock();
+            try {
+                users = concat(users, shards[shard].getEventUsers(eventId));
+            } finally {
+                locks[shard].unlock();
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public double getEventWeightSum(long eventId) {
+        int shard = keyShard(eventId);
+        locks[shard].lock();
+        try {
+            return shards[shard].getEventWeightSum(eventId);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public double addEventWeightSum(long eventId, double delta) {
+        int shard = keyShard(eventId);
+        locks[shard].lock();
+        try {
+            return shards[shard].addEventWeightSum(eventId, delta);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void putEventWeightSum(long eventId, double sum) {
+        int shard = keyShard(eventId);
+        locks[shard].lock();
+        try {
+            shards[shard].putEventWeightSum(eventId, sum);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public long touchEvent(long eventId, long timestamp) {
+        int shard = keyShard(eventId);
+        locks[shard].lock();
+        try {
+            return shards[shard].touchEvent(eventId, timestamp);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void removeEventWeightSum(long eventId) {
+        int shard = keyShard(eventId);
+        locks[shard].lock();
+        try {
+            shards[shard].removeEventWeightSum(eventId);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public long getEventLastSeen(long eventId) {
+        int shard = keyShard(eventId);
+        locks[shard].lock();
+        try {
+            return shards[shard].getEventLastSeen(eventId);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void removeEventLastSeen(long eventId) {
+        int shard = keyShard(eventId);
+        locks[shard].lock();
+        try {
+            shards[shard].removeEventLastSeen(eventId);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public long[] pollExpiredEvents(long cutoff, int limit) {
+        long[] expired = new long[0];
+        for (int shard = 0; shard < shards.length && expired.length < limit; shard++) {
+            locks[shard].lock();
+            try {
+                expired = concat(expired, shards[shard].pollExpiredEvents(cutoff, limit - expired.length));
+            } finally {
+                locks[shard].unlock();
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public double getMinWeightSum(long eventA, long eventB) {
+        int shard = keyShard(StateKeys.pair(eventA, eventB));
+        locks[shard].lock();
+        try {
+            return shards[shard].getMinWeightSum(eventA, eventB);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public double addMinWeightSum(long eventA, long eventB, double delta) {
+        int shard = keyShard(StateKeys.pair(eventA, eventB));
+        locks[shard].lock();
+        try {
+            return shards[shard].addMinWeightSum(eventA, eventB, delta);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void putMinWeightSum(long eventA, long eventB, double sum) {
+        int shard = keyShard(StateKeys.pair(eventA, eventB));
+        locks[shard].lock();
+        try {
+            shards[shard].putMinWeightSum(eventA, eventB, sum);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    @Override
+    public void removeMinWeightSum(long eventA, long eventB) {
+        int shard = keyShard(StateKeys.pair(eventA, eventB));
+        locks[shard].lock();
+        try {
+            shards[shard].removeMinWeightSum(eventA, eventB);
+        } finally {
+            locks[shard].unlock();
+        }
+    }
+
+    private int keyShard(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) ((hash >>> 33) % shards.length);
+    }
+
+    private static long[] concat(long[] first, long[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        long[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,23 @@
+package ru.practicum.aggregator.stats.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("aggregator.similarity")
+public class SimilarityProperties {
+    private double minAbsoluteChange;
+    private double minRelativeChange;
+    private Duration flushInterval = Duration.ofMinutes(1);
+    private int maxTrackedPairs = 1_000_000;
+    private int maxPendingPairs = 100_000;
+    private Duration retention = Duration.ZERO;
+    private int evictionBudget = 10_000;
+    private int maxNeighbours;
+}
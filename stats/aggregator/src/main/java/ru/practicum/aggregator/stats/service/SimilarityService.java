@@ -3,10 +3,29 @@ package ru.practicum.aggregator.stats.service;
 import ru.practicum.stats.avro.EventSimilarityAvro;
 import ru.practicum.stats.avro.UserActionAvro;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface SimilarityService {
 
-    List<EventSimilarityAvro> updateSimilarity(UserActionAvro userAction);
+    /**
+     * Применяет действие и передаёт в sink новые оценки пар. Sink вызывается под блокировкой пары,
+     * поэтому оценки одной пары попадают в sink в порядке их расчёта, какой бы воркер их ни считал.
+     */
+    void updateSimilarity(UserActionAvro userAction, Consumer<EventSimilarityAvro> sink);
+
+    /**
+     * Пересчитывает текущие оценки переданных пар и под блокировкой пары передаёт их в sink.
+     * Пара, удалённая из состояния, передаётся с нулевой оценкой, то есть отзывается.
+     */
+    void republish(Collection<EventSimilarityAvro> similarities, Consumer<EventSimilarityAvro> sink);
+
+    default List<EventSimilarityAvro> updateSimilarity(UserActionAvro userAction) {
+        List<EventSimilarityAvro> similarities = new ArrayList<>();
+        updateSimilarity(userAction, similarities::add);
+        return similarities;
+    }
 
 }
@@ -1,115 +1,146 @@
 package ru.practicum.aggregator.stats.service;
 
-import lombok.RequiredArgsConstructor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import ru.practicum.stats.avro.ActionTypeAvro;
 import ru.practicum.stats.avro.EventSimilarityAvro;
 import ru.practicum.stats.avro.UserActionAvro;
 
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Оценка пары зависит от сумм, которые меняют все воркеры, поэтому расчёт оценки и её передача
+ * в sink выполняются под блокировкой пары: оценки одной пары уходят в порядке расчёта, и более
+ * поздняя оценка всегда посчитана по более свежему состоянию. Порядок блокировок: пара, затем
+ * кучи {@link NeighbourPruner}, затем блокировки хранилища и фильтра; две пары одновременно
+ * не блокируются.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class SimilarityServiceImpl implements SimilarityService {
 
-    private final Map<Long, Map<Long, Double>> eventWeights = new HashMap<>();
-    private final Map<Long, Double> eventSummaryWeights = new HashMap<>();
-    private final Map<Long, Map<Long, Double>> eventMinSummaryWeights = new HashMap<>();
+    private static final int PAIR_LOCK_STRIPES = 1024;
+
+    private final ReentrantLock[] pairLocks = new ReentrantLock[PAIR_LOCK_STRIPES];
+    private final SimilarityStateStore stateStore;
+    private final StateRetention retention;
+    private final NeighbourPruner neighbourPruner;
+    private final Counter skippedActions;
+
+    public SimilarityServiceImpl(SimilarityStateStore stateStore, StateRetention retention,
+                                 NeighbourPruner neighbourPruner, MeterRegistry meterRegistry) {
+        this.stateStore = stateStore;
+        this.retention = retention;
+        this.neighbourPruner = neighbourPruner;
+        this.skippedActions = meterRegistry.counter("aggregator.actions.skipped", "reason", "id-out-of-range");
+        for (int i = 0; i < PAIR_LOCK_STRIPES; i++) {
+            pairLocks[i] = new ReentrantLock();
+        }
+    }
 
     @Override
-    public List<EventSimilarityAvro> updateSimilarity(UserActionAvro userAction) {
+    public void updateSimilarity(UserActionAvro userAction, Consumer<EventSimilarityAvro> sink) {
         long userId = userAction.getUserId();
         long eventId = userAction.getEventId();
+        if (!StateKeys.isPackable(userId) || !StateKeys.isPackable(eventId)) {
+            // Ключи состояния вмещают 31-битные идентификаторы; такое действие пропускается, а не роняет воркер
+            skippedActions.increment();
+            log.warn("Действие пропущено: идентификатор вне диапазона ключей состояния, userId = {}, eventId = {}",
+                    userId, eventId);
+            return;
+        }
+        retention.onAction(eventId, userAction.getTimestamp().toEpochMilli());
 
-        Map<Long, Double> userWeights = eventWeights.computeIfAbsent(eventId, e -> new HashMap<>());
-        double oldWeight = userWeights.getOrDefault(userId, 0.0);
+        double oldWeight = stateStore.getUserWeight(eventId, userId);
         double newWeight = getWeightByActionType(userAction.getActionType());
 
         if (oldWeight >= newWeight) {
-            return List.of();
+            return;
         }
 
-        userWeights.merge(userId, newWeight, Math::max);
-
-        double oldSum = eventSummaryWeights.getOrDefault(eventId, 0.0);
-        double newSum = oldSum - oldWeight + newWeight;
-        eventSummaryWeights.put(eventId, newSum);
+        stateStore.putUserWeight(eventId, userId, newWeight);
+        stateStore.addEventWeightSum(eventId, newWeight - oldWeight);
 
-        List<EventSimilarityAvro> eventSimilarityAvros = new ArrayList<>();
+        // Вытесненная из топов пара отзывается под своей блокировкой, после снятия блокировки текущей пары
+        List<EventSimilarityAvro> retracted = new ArrayList<>();
+        NeighbourPruner.PrunedPairs retract = (eventA, eventB) ->
+                retracted.add(getEventSimilarityAvro(eventA, eventB, 0, userAction.getTimestamp()));
 
-        for (long otherEventId : eventWeights.keySet()) {
-            if (otherEventId == eventId ||
-                    eventWeights.get(otherEventId) == null ||
-                    !eventWeights.get(otherEventId).containsKey(userId)) {
+        for (long otherEventId : stateStore.getUserEvents(userId)) {
+            if (otherEventId == eventId) {
                 continue;
             }
-            double newSumMinPairWeight = updateMinWeightSum(eventId, otherEventId, userId, oldWeight, newWeight);
-            double similarity = calcSimilarity(eventId, otherEventId, newSumMinPairWeight);
-            eventSimilarityAvros.add(getEventSimilarityAvro(eventId, otherEventId, similarity, userAction.getTimestamp()));
+            ReentrantLock pairLock = lockFor(eventId, otherEventId);
+            pairLock.lock();
+            try {
+                double newSumMinPairWeight = updateMinWeightSum(eventId, otherEventId, userId, oldWeight, newWeight);
+                double similarity = calcSimilarity(eventId, otherEventId, newSumMinPairWeight);
+                if (neighbourPruner.offer(eventId, otherEventId, similarity, retract)) {
+                    sink.accept(getEventSimilarityAvro(eventId, otherEventId, similarity, userAction.getTimestamp()));
+                }
+            } finally {
+                pairLock.unlock();
+            }
+            if (!retracted.isEmpty()) {
+                republish(retracted, sink);
+                retracted.clear();
+            }
         }
-        return eventSimilarityAvros;
-    }
-
-    private void putEventMinSummaryWeights(long eventA, long eventB, double sum) {
-        long first = Math.min(eventA, eventB);
-        long second = Math.max(eventA, eventB);
-
-        eventMinSummaryWeights
-                .computeIfAbsent(first, e -> new HashMap<>())
-                .put(second, sum);
     }
 
-    private double getEventMinSummaryWeights(long eventA, long eventB) {
-        long first = Math.min(eventA, eventB);
-        long second = Math.max(eventA, eventB);
-
-        return eventMinSummaryWeights
-                .computeIfAbsent(first, e -> new HashMap<>())
-                .getOrDefault(second, 0.0);
+    @Override
+    public void republish(Collection<EventSimilarityAvro> similarities, Consumer<EventSimilarityAvro> sink) {
+        for (EventSimilarityAvro previous : similarities) {
+            long eventA = previous.getEventA();
+            long eventB = previous.getEventB();
+            ReentrantLock pairLock = lockFor(eventA, eventB);
+            pairLock.lock();
+            try {
+                double similarity = calcSimilarity(eventA, eventB, stateStore.getMinWeightSum(eventA, eventB));
+                sink.accept(getEventSimilarityAvro(eventA, eventB, similarity, previous.getTimestamp()));
+            } finally {
+                pairLock.unlock();
+            }
+        }
     }
 
-    private double getWeightByActionType(ActionTypeAvro actionType) {
+    private float getWeightByActionType(ActionTypeAvro actionType) {
         return switch (actionType) {
-            case VIEW -> 0.4;
-            case REGISTER -> 0.8;
-            case LIKE -> 1.0;
+            case VIEW -> 0.4f;
+            case REGISTER -> 0.8f;
+            case LIKE -> 1.0f;
         };
     }
 
 
     private double updateMinWeightSum(long eventId, long otherEventId, long userId, double oldWeight, double newWeight) {
-        double oldWeightOtherEvent = eventWeights.get(otherEventId).get(userId);
+        double oldWeightOtherEvent = stateStore.getUserWeight(otherEventId, userId);
 
         double oldMinPairWeight = Math.min(oldWeight, oldWeightOtherEvent);
         double newMinPairWeight = Math.min(newWeight, oldWeightOtherEvent);
 
-        long firstEventId = Math.min(eventId, otherEventId);
-        long secondEventId = Math.max(eventId, otherEventId);
-
-        double oldSumMinPairWeight = getEventMinSummaryWeights(firstEventId, secondEventId);
-
-        if (oldMinPairWeight == newMinPairWeight) return oldSumMinPairWeight;
+        if (oldMinPairWeight == newMinPairWeight) return stateStore.getMinWeightSum(eventId, otherEventId);
 
-        double newSumMinPairWeight = oldSumMinPairWeight - oldMinPairWeight + newMinPairWeight;
-        putEventMinSummaryWeights(firstEventId, secondEventId, newSumMinPairWeight);
-        return newSumMinPairWeight;
+        return stateStore.addMinWeightSum(eventId, otherEventId, newMinPairWeight - oldMinPairWeight);
     }
 
     private double calcSimilarity(long eventId, long otherEventId, double newSumMinPairWeight) {
         if (newSumMinPairWeight == 0) return 0;
 
-        double sumEventWeight = eventSummaryWeights.get(eventId);
-        double sumOtherEventWeight = eventSummaryWeights.get(otherEventId);
+        double sumEventWeight = stateStore.getEventWeightSum(eventId);
+        double sumOtherEventWeight = stateStore.getEventWeightSum(otherEventId);
         return newSumMinPairWeight / (Math.sqrt(sumEventWeight) * Math.sqrt(sumOtherEventWeight));
     }
 
     private EventSimilarityAvro getEventSimilarityAvro(long eventId, long otherEventId, double similarity,
-                                                       java.time.Instant timestamp) {
+                                                       Instant timestamp) {
         long firstEventId = Math.min(eventId, otherEventId);
         long secondEventId = Math.max(eventId, otherEventId);
 
@@ -119,4 +150,9 @@ public class SimilarityServiceImpl implements SimilarityService {
                 .setTimestamp(timestamp)
                 .setScore(similarity).build();
     }
+
+    private ReentrantLock lockFor(long eventA, long eventB) {
+        long hash = StateKeys.pair(eventA, eventB) * 0x9E3779B97F4A7C15L;
+        return pairLocks[(int) (hash >>> 54)];
+    }
 }
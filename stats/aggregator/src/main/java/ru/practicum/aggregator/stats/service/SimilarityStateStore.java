@@ -0,0 +1,97 @@
+package ru.practicum.aggregator.stats.service;
+
+/**
+ * Хранилище состояния агрегатора: веса действий пользователей по событиям, суммы весов событий
+ * и суммы минимальных весов для пар событий.
+ * <p>
+ * Сумма, которую add-метод довёл до нуля (с точностью до погрешности округления), удаляется,
+ * и метод возвращает 0: нулевая сумма бывает только после вычитания вклада вытесненного пользователя.
+ */
+public interface SimilarityStateStore {
+
+    /**
+     * Количество шардов пользовательских данных; данные пользователя меняет только воркер,
+     * владеющий его шардом.
+     */
+    default int shardCount() {
+        return 1;
+    }
+
+    /**
+     * Шард, в котором лежат веса и события пользователя.
+     */
+    default int userShard(long userId) {
+        return 0;
+    }
+
+    double getUserWeight(long eventId, long userId);
+
+    void putUserWeight(long eventId, long userId, double weight);
+
+    /**
+     * Удаляет вес пользователя для события вместе с записями в индексах.
+     */
+    void removeUserWeight(long eventId, long userId);
+
+    /**
+     * @return события, с которыми взаимодействовал пользователь (копия)
+     */
+    long[] getUserEvents(long userId);
+
+    /**
+     * @return пользователи, взаимодействовавшие с событием (копия)
+     */
+    long[] getEventUsers(long eventId);
+
+    double getEventWeightSum(long eventId);
+
+    double addEventWeightSum(long eventId, double delta);
+
+    void putEventWeightSum(long eventId, double sum);
+
+    void removeEventWeightSum(long eventId);
+
+    /**
+     * Запоминает время последнего взаимодействия с событием, если оно позже уже известного.
+     *
+     * @return время последнего взаимодействия после обновления
+     */
+    long touchEvent(long eventId, long timestamp);
+
+    /**
+     * @return время последнего взаимодействия с событием или Long.MIN_VALUE, если оно неизвестно
+     */
+    long getEventLastSeen(long eventId);
+
+    /**
+     * Удаляет время последнего взаимодействия с событием.
+     */
+    void removeEventLastSeen(long eventId);
+
+    /**
+     * Возвращает до limit событий, последнее взаимодействие с которыми было раньше cutoff.
+     * Возвращённые события больше не считаются кандидатами, пока их не коснутся снова.
+     */
+    long[] pollExpiredEvents(long cutoff, int limit);
+
+    double getMinWeightSum(long eventA, long eventB);
+
+    double addMinWeightSum(long eventA, long eventB, double delta);
+
+    void putMinWeightSum(long eventA, long eventB, double sum);
+
+    void removeMinWeightSum(long eventA, long eventB);
+
+    /**
+     * Восстанавливает состояние из долговременного хранилища, если оно есть.
+     */
+    default void restore() {
+    }
+
+    /**
+     * Сохраняет изменения пользователей указанных шардов и дожидается их записи. Воркер вызывает его
+     * после подтверждения всех своих схожестей и перед фиксацией оффсетов.
+     */
+    default void flush(int[] shards) {
+    }
+}
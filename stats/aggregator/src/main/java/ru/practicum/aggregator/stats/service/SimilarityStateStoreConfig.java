@@ -0,0 +1,17 @@
+package ru.practicum.aggregator.stats.service;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.practicum.aggregator.stats.kafka.KafkaConfigProperties;
+
+@Configuration
+public class SimilarityStateStoreConfig {
+
+    @Bean
+    public SimilarityStateStore baseSimilarityStateStore(KafkaConfigProperties kafkaConfig) {
+        if (kafkaConfig.getWorkers() > 1) {
+            return new ShardedSimilarityStateStore(kafkaConfig.getUserActionsPartitions());
+        }
+        return new PrimitiveSimilarityStateStore();
+    }
+}
@@ -0,0 +1,207 @@
+package ru.practicum.aggregator.stats.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Подавляет публикацию схожести пары, если с момента последней отправки она изменилась не больше
+ * чем на min-absolute-change или min-relative-change. Подавленные значения существуют только
+ * в памяти, поэтому воркер забирает их через {@link #drain()}, пересчитывает и отправляет перед каждой
+ * фиксацией оффсетов, а оффсеты при включённом фильтре фиксирует раз в flush-interval.
+ * Если оба порога нулевые, публикуется всё. Отзыв пары (нулевая оценка) публикуется всегда.
+ * <p>
+ * Подавленных значений не больше max-pending-pairs: значение, не поместившееся в заполненный шард,
+ * публикуется сразу, а фильтр просит воркеры зафиксировать оффсеты досрочно, не дожидаясь
+ * flush-interval, см. {@link #isFlushRequested()}.
+ * <p>
+ * Последние отправленные значения занимают не больше max-tracked-pairs пар: в шарде два поколения,
+ * и когда текущее заполняется, предыдущее отбрасывается. Пара, выпавшая из обоих поколений,
+ * при следующем обновлении просто публикуется.
+ * <p>
+ * Пары распределены по шардам по хэшу ключа пары, как суммы пар в {@link ShardedSimilarityStateStore};
+ * каждая операция над парой берёт блокировку одного шарда.
+ */
+@Component
+public class SimilarityUpdateFilter {
+
+    private static final int SHARDS = 64;
+
+    private final double minAbsoluteChange;
+    private final double minRelativeChange;
+    private final long flushIntervalNanos;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Counter emitted;
+    private final Counter suppressed;
+    private final Counter flushed;
+
+    public SimilarityUpdateFilter(SimilarityProperties properties, MeterRegistry meterRegistry) {
+        this.minAbsoluteChange = properties.getMinAbsoluteChange();
+        this.minRelativeChange = properties.getMinRelativeChange();
+        this.flushIntervalNanos = properties.getFlushInterval().toNanos();
+        this.emitted = meterRegistry.counter("aggregator.similarity.updates", "result", "emitted");
+        this.suppressed = meterRegistry.counter("aggregator.similarity.updates", "result", "suppressed");
+        this.flushed = meterRegistry.counter("aggregator.similarity.updates", "result", "flushed");
+        int generationSize = Math.max(16, properties.getMaxTrackedPairs() / (2 * SHARDS));
+        int pendingLimit = Math.max(16, properties.getMaxPendingPairs() / SHARDS);
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(generationSize, pendingLimit);
+        }
+    }
+
+    public boolean isEnabled() {
+        return minAbsoluteChange > 0 || minRelativeChange > 0;
+    }
+
+    /**
+     * Как часто фиксировать оффсеты: при включённом фильтре — раз в flush-interval, чтобы подавленные
+     * обновления успевали схлопнуться, иначе — после каждого poll-а.
+     */
+    public long commitIntervalNanos() {
+        return isEnabled() ? flushIntervalNanos : 0;
+    }
+
+    /**
+     * @return true, если шард подавленных значений заполнился и их нужно отправить, не дожидаясь flush-interval
+     */
+    public boolean isFlushRequested() {
+        return flushRequested.get();
+    }
+
+    /**
+     * Учитывает новую оценку пары. Вызывается под блокировкой пары, в которой оценка затем отправляется.
+     *
+     * @return true, если оценку нужно отправить сейчас; иначе она остаётся в подавленных
+     */
+    public boolean offer(EventSimilarityAvro similarity) {
+        if (!isEnabled()) {
+            emitted.increment();
+            return true;
+        }
+        long pair = StateKeys.pair(similarity.getEventA(), similarity.getEventB());
+        Shard shard = shardOf(pair);
+        synchronized (shard) {
+            if (similarity.getScore() <= 0) {
+                shard.forget(pair);
+            } else if (isSignificant(shard.lastPublished(pair), similarity.getScore())) {
+                shard.published(pair, (float) similarity.getScore());
+                shard.pending.remove(pair);
+            } else if (shard.pending.size() >= shard.pendingLimit && !shard.pending.containsKey(pair)) {
+                shard.published(pair, (float) similarity.getScore());
+                flushRequested.set(true);
+            } else {
+                shard.pending.put(pair, similarity);
+                suppressed.increment();
+                return false;
+            }
+        }
+        emitted.increment();
+        return true;
+    }
+
+    /**
+     * Запоминает оценку пары, отправленную без проверки порогов, например пересчитанное подавленное значение.
+     */
+    public void published(EventSimilarityAvro similarity) {
+        if (!isEnabled()) {
+            return;
+        }
+        long pair = StateKeys.pair(similarity.getEventA(), similarity.getEventB());
+        Shard shard = shardOf(pair);
+        synchronized (shard) {
+            if (similarity.getScore() <= 0) {
+                shard.forget(pair);
+            } else {
+                shard.published(pair, (float) similarity.getScore());
+            }
+        }
+    }
+
+    /**
+     * Забирает все накопленные подавленные значения. Вызывающий пересчитывает их под блокировкой пары,
+     * отправляет и отмечает через {@link #published(EventSimilarityAvro)}.
+     */
+    public List<EventSimilarityAvro> drain() {
+        if (!isEnabled()) {
+            return List.of();
+        }
+        flushRequested.set(false);
+        List<EventSimilarityAvro> result = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                if (shard.pending.isEmpty()) {
+                    continue;
+                }
+                shard.pending.forEachValue(result::add);
+                shard.pending.clear();
+            }
+        }
+        flushed.increment(result.size());
+        return result;
+    }
+
+    /**
+     * Забывает пару, удалённую из состояния агрегатора.
+     */
+    public void forget(long eventA, long eventB) {
+        long pair = StateKeys.pair(eventA, eventB);
+        Shard shard = shardOf(pair);
+        synchronized (shard) {
+            shard.forget(pair);
+        }
+    }
+
+    private boolean isSignificant(float previous, double score) {
+        if (Float.isNaN(previous)) {
+            return true;
+        }
+        double change = Math.abs(score - previous);
+        return (minAbsoluteChange > 0 && change > minAbsoluteChange)
+                || (minRelativeChange > 0 && change > minRelativeChange * Math.abs(previous));
+    }
+
+    private Shard shardOf(long pair) {
+        return shards[(int) ((pair * 0x9E3779B97F4A7C15L) >>> 58)];
+    }
+
+    private static final class Shard {
+
+        private final int generationSize;
+        private final int pendingLimit;
+        private final LongObjectHashMap<EventSimilarityAvro> pending = new LongObjectHashMap<>(1 << 4);
+        private LongFloatHashMap current = new LongFloatHashMap(1 << 10);
+        private LongFloatHashMap previous = new LongFloatHashMap(1 << 10);
+
+        private Shard(int generationSize, int pendingLimit) {
+            this.generationSize = generationSize;
+            this.pendingLimit = pendingLimit;
+        }
+
+        float lastPublished(long pair) {
+            float score = current.get(pair, Float.NaN);
+            return Float.isNaN(score) ? previous.get(pair, Float.NaN) : score;
+        }
+
+        void published(long pair, float score) {
+            if (current.size() >= generationSize && !current.containsKey(pair)) {
+                LongFloatHashMap dropped = previous;
+                previous = current;
+                current = dropped;
+                current.clear();
+            }
+            current.put(pair, score);
+        }
+
+        void forget(long pair) {
+            current.remove(pair);
+            previous.remove(pair);
+            pending.remove(pair);
+        }
+    }
+}
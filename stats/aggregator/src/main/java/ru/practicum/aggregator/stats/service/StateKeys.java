@@ -0,0 +1,45 @@
+package ru.practicum.aggregator.stats.service;
+
+/**
+ * Упаковка пары идентификаторов в один long-ключ. Идентификаторы должны укладываться в 31 бит,
+ * поэтому упакованный ключ всегда неотрицателен. Действия с идентификаторами шире отсеиваются
+ * до обращения к состоянию, см. {@link #isPackable(long)}.
+ */
+public final class StateKeys {
+
+    private static final long MAX_ID = Integer.MAX_VALUE;
+
+    private StateKeys() {
+    }
+
+    /**
+     * @return true, если идентификатор можно упаковать в ключ состояния
+     */
+    public static boolean isPackable(long id) {
+        return id >= 0 && id <= MAX_ID;
+    }
+
+    public static long pack(long high, long low) {
+        checkId(high);
+        checkId(low);
+        return (high << 32) | low;
+    }
+
+    public static long pair(long eventA, long eventB) {
+        return pack(Math.min(eventA, eventB), Math.max(eventA, eventB));
+    }
+
+    public static long high(long key) {
+        return key >>> 32;
+    }
+
+    public static long low(long key) {
+        return key & 0xFFFFFFFFL;
+    }
+
+    private static void checkId(long id) {
+        if (!isPackable(id)) {
+            throw new IllegalArgumentException("Идентификатор вне допустимого диапазона: " + id);
+        }
+    }
+}
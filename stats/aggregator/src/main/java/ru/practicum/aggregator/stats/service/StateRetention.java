@@ -0,0 +1,256 @@
+package ru.practicum.aggregator.stats.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Вытеснение холодных событий из состояния агрегатора. Время отсчитывается по времени событий:
+ * водяной знак — максимальный timestamp обработанных действий, событие вытесняется, если с ним
+ * не взаимодействовали дольше retention.
+ * <p>
+ * Пользователь вытесняемого события удаляется точно: его вес вычитается из суммы весов события,
+ * а его вклад — из сумм минимальных весов пар события; обнулившиеся суммы удаляются. Поэтому
+ * после каждого удалённого пользователя состояние согласовано, и вытеснение можно прервать:
+ * если с событием снова взаимодействуют, оно отменяется за O(1), оставшиеся пользователи продолжают
+ * учитываться, а событие возвращается в кандидаты со временем нового действия. Событие удаляется
+ * целиком, когда у него не остаётся пользователей.
+ * <p>
+ * Веса пользователя меняет только воркер, владеющий его шардом, поэтому пользователи события
+ * разбиты по шардам, и в {@link #evictStep(int[])} воркер удаляет только пользователей своих шардов,
+ * не больше eviction-budget за вызов. Вытеснение события с большой аудиторией растягивается
+ * на несколько poll-ов всех воркеров.
+ * <p>
+ * Действие с событием и вытеснение этого события согласуются блокировкой события: под ней действие
+ * проверяет, не вытесняется ли событие, и обновляет время взаимодействия, а вытеснение выбирает
+ * событие, удаляет каждого пользователя и завершается. Порядок блокировок: событие, затем кучи
+ * {@link NeighbourPruner}, хранилище и фильтр.
+ */
+@Slf4j
+@Component
+public class StateRetention {
+
+    private static final int EVENT_LOCK_STRIPES = 64;
+
+    private final SimilarityStateStore stateStore;
+    private final SimilarityUpdateFilter updateFilter;
+    private final NeighbourPruner neighbourPruner;
+    private final long retentionMillis;
+    private final int evictionBudget;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Object[] eventLocks = new Object[EVENT_LOCK_STRIPES];
+    private final AtomicLong cancelledEvictions = new AtomicLong();
+    private volatile long watermark = Long.MIN_VALUE;
+
+    /**
+     * Вытесняемое событие; меняется под его блокировкой, отменой сбрасывается в -1.
+     */
+    private volatile long evictingEvent = -1;
+    /**
+     * Событие, для которого заполнены evictingUsers; доступно только под {@link #lock}.
+     */
+    private long current = -1;
+    private long[][] evictingUsers;
+    private int[] evictingPositions;
+    private long evictedEvents;
+
+    public StateRetention(SimilarityStateStore stateStore, SimilarityUpdateFilter updateFilter,
+                          NeighbourPruner neighbourPruner, SimilarityProperties properties) {
+        this.stateStore = stateStore;
+        this.updateFilter = updateFilter;
+        this.neighbourPruner = neighbourPruner;
+        this.retentionMillis = properties.getRetention().toMillis();
+        this.evictionBudget = properties.getEvictionBudget();
+        for (int i = 0; i < EVENT_LOCK_STRIPES; i++) {
+            eventLocks[i] = new Object();
+        }
+    }
+
+    public boolean isEnabled() {
+        return retentionMillis > 0;
+    }
+
+    public void onAction(long eventId, long timestamp) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (timestamp > watermark) {
+            watermark = timestamp;
+        }
+        synchronized (lockFor(eventId)) {
+            if (evictingEvent == eventId) {
+                evictingEvent = -1;
+                log.debug("Вытеснение события ID {} отменено: с ним снова взаимодействуют, всего отменено {}",
+                        eventId, cancelledEvictions.incrementAndGet());
+                // Вынутое из кандидатов событие возвращается туда только новым касанием,
+                // а действие со старым timestamp время последнего взаимодействия не сдвигает.
+                // Событие уже холодное, так что время этого действия вместо максимума ничего не меняет
+                stateStore.removeEventLastSeen(eventId);
+            }
+            stateStore.touchEvent(eventId, timestamp);
+        }
+    }
+
+    /**
+     * Выполняет очередную порцию вытеснения для пользователей шардов воркера.
+     * Если порцию уже выполняет другой воркер, ничего не делает.
+     *
+     * @param shards шарды пользователей, которыми владеет вызывающий воркер
+     */
+    public void evictStep(int[] shards) {
+        if (!isEnabled() || watermark == Long.MIN_VALUE || shards.length == 0 || !lock.tryLock()) {
+            return;
+        }
+        try {
+            int budget = evictionBudget;
+            long cutoff = watermark - retentionMillis;
+            while (budget > 0) {
+                if (current >= 0 && evictingEvent != current) {
+                    // Вытеснение отменено действием с событием
+                    resetEviction();
+                }
+                if (current < 0) {
+                    long[] expired = stateStore.pollExpiredEvents(cutoff, 1);
+                    if (expired.length == 0) {
+                        return;
+                    }
+                    if (!select(expired[0], cutoff)) {
+                        continue;
+                    }
+                    assignUsers(stateStore.getEventUsers(current));
+                }
+                int spent = evictOwnedUsers(shards, budget);
+                budget -= spent;
+                if (evictingEvent != current) {
+                    continue;
+                }
+                if (allUsersEvicted()) {
+                    long[] remaining = stateStore.getEventUsers(current);
+                    if (remaining.length == 0) {
+                        completeEviction();
+                        budget--;
+                    } else {
+                        // Пользователи, добавленные действиями со старым timestamp, пока шло вытеснение
+                        assignUsers(remaining);
+                    }
+                } else if (spent == 0) {
+                    // Остальных пользователей удалят воркеры, владеющие их шардами
+                    return;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Начинает вытеснение события, если после выбора из кандидатов его не коснулись снова.
+     */
+    private boolean select(long eventId, long cutoff) {
+        synchronized (lockFor(eventId)) {
+            long lastSeen = stateStore.getEventLastSeen(eventId);
+            if (lastSeen == Long.MIN_VALUE || lastSeen >= cutoff) {
+                // Событие, которого коснулись снова, уже лежит в более поздней корзине кандидатов
+                return false;
+            }
+            evictingEvent = eventId;
+            current = eventId;
+            return true;
+        }
+    }
+
+    private void assignUsers(long[] users) {
+        int shardCount = stateStore.shardCount();
+        int[] counts = new int[shardCount];
+        for (long userId : users) {
+            counts[stateStore.userShard(userId)]++;
+        }
+        evictingUsers = new long[shardCount][];
+        for (int shard = 0; shard < shardCount; shard++) {
+            evictingUsers[shard] = new long[counts[shard]];
+            counts[shard] = 0;
+        }
+        for (long userId : users) {
+            int shard = stateStore.userShard(userId);
+            evictingUsers[shard][counts[shard]++] = userId;
+        }
+        evictingPositions = new int[shardCount];
+    }
+
+    private int evictOwnedUsers(int[] shards, int budget) {
+        int spent = 0;
+        for (int shard : shards) {
+            if (shard >= evictingUsers.length) {
+                continue;
+            }
+            long[] users = evictingUsers[shard];
+            while (evictingPositions[shard] < users.length && spent < budget) {
+                synchronized (lockFor(current)) {
+                    if (evictingEvent != current) {
+                        return spent;
+                    }
+                    evictUser(current, users[evictingPositions[shard]++]);
+                }
+                spent++;
+            }
+        }
+        return spent;
+    }
+
+    private boolean allUsersEvicted() {
+        for (int shard = 0; shard < evictingUsers.length; shard++) {
+            if (evictingPositions[shard] < evictingUsers[shard].length) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void evictUser(long eventId, long userId) {
+        double weight = stateStore.getUserWeight(eventId, userId);
+        if (weight == 0) {
+            return;
+        }
+        for (long otherEventId : stateStore.getUserEvents(userId)) {
+            if (otherEventId == eventId) {
+                continue;
+            }
+            double contribution = Math.min(weight, stateStore.getUserWeight(otherEventId, userId));
+            if (stateStore.addMinWeightSum(eventId, otherEventId, -contribution) == 0) {
+                updateFilter.forget(eventId, otherEventId);
+                neighbourPruner.forget(eventId, otherEventId);
+            }
+        }
+        stateStore.removeUserWeight(eventId, userId);
+        stateStore.addEventWeightSum(eventId, -weight);
+    }
+
+    private void completeEviction() {
+        long eventId = current;
+        synchronized (lockFor(eventId)) {
+            if (evictingEvent != eventId) {
+                return;
+            }
+            // Остаток суммы весов — погрешность округления
+            stateStore.removeEventWeightSum(eventId);
+            stateStore.removeEventLastSeen(eventId);
+            neighbourPruner.forgetEvent(eventId);
+            evictingEvent = -1;
+        }
+        resetEviction();
+        evictedEvents++;
+        log.debug("Событие ID {} вытеснено из состояния, всего вытеснено {}", eventId, evictedEvents);
+    }
+
+    private void resetEviction() {
+        current = -1;
+        evictingUsers = null;
+        evictingPositions = null;
+    }
+
+    private Object lockFor(long eventId) {
+        return eventLocks[(int) ((eventId * 0x9E3779B97F4A7C15L) >>> 58)];
+    }
+}
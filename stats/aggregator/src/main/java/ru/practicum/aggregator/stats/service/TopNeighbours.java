@@ -0,0 +1,128 @@
+package ru.practicum.aggregator.stats.service;
+
+/**
+ * Ограниченная min-куча соседей события: в вершине самый слабый из K сильнейших соседей.
+ * Поиск соседа по идентификатору — линейный, K предполагается небольшим.
+ */
+final class TopNeighbours {
+
+    static final long NONE = -1;
+    static final long REJECTED = -2;
+
+    private final long[] ids;
+    private final float[] scores;
+    private int size;
+
+    TopNeighbours(int capacity) {
+        ids = new long[capacity];
+        scores = new float[capacity];
+    }
+
+    boolean contains(long id) {
+        return indexOf(id) >= 0;
+    }
+
+    /**
+     * Добавляет соседа или обновляет его оценку.
+     *
+     * @return вытесненный сосед, {@link #NONE}, если никто не вытеснен, или {@link #REJECTED},
+     * если оценка слишком мала для попадания в кучу
+     */
+    long offer(long id, float score) {
+        int index = indexOf(id);
+        if (index >= 0) {
+            float old = scores[index];
+            scores[index] = score;
+            if (score < old) {
+                siftUp(index);
+            } else {
+                siftDown(index);
+            }
+            return NONE;
+        }
+        if (size < ids.length) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return NONE;
+        }
+        if (score <= scores[0]) {
+            return REJECTED;
+        }
+        long evicted = ids[0];
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0);
+        return evicted;
+    }
+
+    void remove(long id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return;
+        }
+        size--;
+        if (index != size) {
+            ids[index] = ids[size];
+            scores[index] = scores[size];
+            siftDown(index);
+            siftUp(index);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    long idAt(int index) {
+        return ids[index];
+    }
+
+    private int indexOf(long id) {
+        for (int i = 0; i < size; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] <= scores[index]) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && scores[left] < scores[smallest]) {
+                smallest = left;
+            }
+            if (right < size && scores[right] < scores[smallest]) {
+                smallest = right;
+            }
+            if (smallest == index) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -0,0 +1,159 @@
+package ru.practicum.aggregator.stats.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongHashTableTest {
+
+    @Test
+    void growsAndKeepsAllEntries() {
+        LongLongHashMap map = new LongLongHashMap(1);
+        assertEquals(16, map.capacity());
+
+        for (long key = 0; key < 10_000; key++) {
+            map.put(key * 31, key);
+        }
+
+        assertEquals(10_000, map.size());
+        assertEquals(0, map.capacity() & (map.capacity() - 1), "ёмкость — степень двойки");
+        assertTrue(map.size() <= map.capacity() * 0.75);
+        for (long key = 0; key < 10_000; key++) {
+            assertEquals(key, map.get(key * 31, -1));
+        }
+    }
+
+    @Test
+    void growthKeepsEntriesAddedAfterRemovals() {
+        LongLongHashMap map = new LongLongHashMap(1);
+        for (long key = 0; key < 12; key++) {
+            map.put(key, key);
+        }
+        for (long key = 0; key < 12; key += 2) {
+            assertTrue(map.remove(key));
+        }
+        for (long key = 100; key < 200; key++) {
+            map.put(key, key);
+        }
+
+        assertEquals(106, map.size());
+        for (long key = 1; key < 12; key += 2) {
+            assertEquals(key, map.get(key, -1));
+        }
+        for (long key = 0; key < 12; key += 2) {
+            assertFalse(map.containsKey(key));
+        }
+        for (long key = 100; key < 200; key++) {
+            assertEquals(key, map.get(key, -1));
+        }
+    }
+
+    /**
+     * Таблица заполнена до порога расширения, так что цепочки пробирования длинные и заворачивают
+     * через конец массива. После удаления любого ключа остальные должны находиться.
+     */
+    @Test
+    void backwardShiftDeletionKeepsProbeChains() {
+        int keyCount = 12;
+        for (int removed = 0; removed < keyCount; removed++) {
+            LongLongHashMap map = new LongLongHashMap(1);
+            for (long key = 0; key < keyCount; key++) {
+                map.put(key, key * 10);
+            }
+            assertEquals(16, map.capacity());
+
+            assertTrue(map.remove(removed));
+
+            assertEquals(keyCount - 1, map.size());
+            assertFalse(map.containsKey(removed));
+            for (long key = 0; key < keyCount; key++) {
+                if (key != removed) {
+                    assertEquals(key * 10, map.get(key, -1), "ключ " + key + " после удаления " + removed);
+                }
+            }
+        }
+    }
+
+    @Test
+    void removingAllKeysOneByOneLeavesEmptyTable() {
+        LongLongHashMap map = new LongLongHashMap(1);
+        List<Long> keys = new ArrayList<>();
+        for (long key = 0; key < 12; key++) {
+            keys.add(key * 0x10000L);
+            map.put(key * 0x10000L, key);
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            assertTrue(map.remove(keys.get(i)));
+            for (int j = i + 1; j < keys.size(); j++) {
+                assertEquals(j, map.get(keys.get(j), -1));
+            }
+        }
+
+        assertTrue(map.isEmpty());
+        assertFalse(map.remove(keys.getFirst()));
+    }
+
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        SplittableRandom random = new SplittableRandom(42);
+        LongDoubleHashMap map = new LongDoubleHashMap(1);
+        Map<Long, Double> expected = new HashMap<>();
+
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextLong(-500, 500);
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    double value = random.nextDouble();
+                    map.put(key, value);
+                    expected.put(key, value);
+                }
+                case 1 -> assertEquals(expected.remove(key) != null, map.remove(key));
+                default -> {
+                    double sum = map.add(key, 1.0);
+                    assertEquals(expected.merge(key, 1.0, Double::sum), sum);
+                }
+            }
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (long key = -500; key < 500; key++) {
+            assertEquals(expected.containsKey(key), map.containsKey(key));
+            assertEquals(expected.getOrDefault(key, Double.NaN), map.get(key, Double.NaN));
+        }
+    }
+
+    @Test
+    void clearRemovesAllEntries() {
+        LongLongHashMap map = new LongLongHashMap(1);
+        for (long key = 0; key < 100; key++) {
+            map.put(key, key);
+        }
+
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        for (long key = 0; key < 100; key++) {
+            assertFalse(map.containsKey(key));
+        }
+        map.put(7, 70);
+        assertEquals(70, map.get(7, -1));
+    }
+
+    @Test
+    void rejectsReservedKey() {
+        LongLongHashMap map = new LongLongHashMap();
+
+        assertThrows(IllegalArgumentException.class, () -> map.put(Long.MIN_VALUE, 1));
+        assertThrows(IllegalArgumentException.class, () -> map.get(Long.MIN_VALUE, 0));
+    }
+}
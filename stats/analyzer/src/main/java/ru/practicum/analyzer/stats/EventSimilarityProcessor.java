@@ -1,67 +1,98 @@
 package ru.practicum.analyzer.stats;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.stereotype.Component;
 import ru.practicum.analyzer.stats.kafka.KafkaConfigProperties;
+import ru.practicum.analyzer.stats.kafka.LaneDispatcher;
 import ru.practicum.analyzer.stats.service.EventSimilarityService;
+import ru.practicum.analyzer.stats.service.NeighbourSource;
+import ru.practicum.analyzer.stats.service.RecommendationCache;
 import ru.practicum.stats.avro.EventSimilarityAvro;
 
 import java.time.Duration;
-import java.util.List;
+import java.util.*;
 
+/**
+ * Читает оценки схожести и обрабатывает их в дорожках по ключу записи. Агрегатор публикует пару
+ * с ключом по меньшему из событий, так что обе строки пары в базе и в графе меняет одна дорожка.
+ * <p>
+ * Граф схожести и кэш рекомендаций живут в памяти процесса и обновляются только из записей, прочитанных
+ * этим consumer-ом. Поэтому анализатор запускается одним экземпляром: второй экземпляр в той же группе
+ * получил бы часть партиций, и граф и кэш каждого экземпляра пропускали бы изменения чужих партиций.
+ */
 @Slf4j
 @Component
 public class EventSimilarityProcessor implements Runnable {
     private final KafkaConsumer<Long, EventSimilarityAvro> consumer;
-    private final EventSimilarityService eventSimilarityService;
+    private final LaneDispatcher<EventSimilarityAvro> dispatcher;
     private final KafkaConfigProperties kafkaConfig;
 
-    public EventSimilarityProcessor(KafkaConfigProperties kafkaConfig, EventSimilarityService eventSimilarityService) {
+    public EventSimilarityProcessor(KafkaConfigProperties kafkaConfig, EventSimilarityService eventSimilarityService,
+                                    NeighbourSource neighbourSource, RecommendationCache recommendationCache) {
         this.kafkaConfig = kafkaConfig;
         consumer = new KafkaConsumer<>(kafkaConfig.getEventSimilarityConsumerProps());
-        this.eventSimilarityService = eventSimilarityService;
+        dispatcher = new LaneDispatcher<>("event-similarity", kafkaConfig.getEventSimilarityLanes(),
+                kafkaConfig.getMaxPendingPolls(), similarities -> {
+            eventSimilarityService.addSimilarities(similarities);
+            neighbourSource.update(similarities);
+            Set<Long> eventIds = new HashSet<>();
+            for (EventSimilarityAvro similarity : similarities) {
+                eventIds.add(similarity.getEventA());
+                eventIds.add(similarity.getEventB());
+            }
+            recommendationCache.invalidateEvents(eventIds);
+            log.info("Обработано оценок схожести: {}", similarities.size());
+        });
     }
 
     @Override
     public void run() {
-        log.info("Запуск EventSimilarityProcessor.");
+        log.info("Запуск EventSimilarityProcessor, дорожек: {}", kafkaConfig.getEventSimilarityLanes());
         try {
-            consumer.subscribe(List.of(kafkaConfig.getEventsSimilarityTopic()));
+            consumer.subscribe(List.of(kafkaConfig.getEventsSimilarityTopic()), new RevokeListener());
             Runtime.getRuntime().addShutdownHook(new Thread(consumer::wakeup));
 
+            Map<TopicPartition, OffsetAndMetadata> committed = Map.of();
             while (true) {
                 ConsumerRecords<Long, EventSimilarityAvro> records = consumer.poll(Duration.ofMillis(500));
-                if (records.isEmpty()) continue;
-
-                for (ConsumerRecord<Long, EventSimilarityAvro> record : records) {
-                    log.info("Запрос схожести: topic = {}, partition = {}, offset = {}, value = {}",
-                            record.topic(), record.partition(), record.offset(), record.value());
-
-                    eventSimilarityService.addSimilarity(record.value());
-
-                    log.info("Схожесть обработана.");
+                if (!records.isEmpty()) {
+                    for (ConsumerRecord<Long, EventSimilarityAvro> record : records) {
+                        log.debug("Запрос схожести: topic = {}, partition = {}, offset = {}, value = {}",
+                                record.topic(), record.partition(), record.offset(), record.value());
+                    }
+                    dispatcher.dispatch(records);
                 }
 
-                consumer.commitAsync((offsets, exception) -> {
-                    if (exception != null) {
-                        log.warn("Ошибка фиксации оффсетов. Offset: {}", offsets, exception);
-                    }
-                });
+                dispatcher.throwIfFailed();
+                Map<TopicPartition, OffsetAndMetadata> completed = dispatcher.completedOffsets();
+                if (!completed.equals(committed)) {
+                    committed = completed;
+                    consumer.commitAsync(completed, (offsets, exception) -> {
+                        if (exception != null) {
+                            log.warn("Ошибка фиксации оффсетов. Offset: {}", offsets, exception);
+                        }
+                    });
+                }
             }
 
         } catch (WakeupException ignored) {
             log.info("EventSimilarityProcessor получил WakeupException, завершение работы");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("Ошибка обработки event similarity", e);
         } finally {
             try {
-                consumer.commitSync();
+                dispatcher.awaitAll();
+                consumer.commitSync(dispatcher.completedOffsets());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } finally {
                 log.info("Закрываем consumer");
+                dispatcher.close();
                 consumer.close();
             }
         }
@@ -70,4 +101,29 @@ public class EventSimilarityProcessor implements Runnable {
     public void stop() {
         consumer.wakeup();
     }
+
+    /**
+     * Перед отдачей партиций дожидается их обработки и фиксирует оффсеты, чтобы новый владелец
+     * не повторял уже записанное.
+     */
+    private class RevokeListener implements ConsumerRebalanceListener {
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            if (partitions.isEmpty()) {
+                return;
+            }
+            try {
+                dispatcher.awaitAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            consumer.commitSync(dispatcher.completedOffsets());
+            dispatcher.forget(partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        }
+    }
 }
@@ -1,67 +1,92 @@
 package ru.practicum.analyzer.stats;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
-import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
 import org.springframework.stereotype.Component;
 import ru.practicum.analyzer.stats.kafka.KafkaConfigProperties;
+import ru.practicum.analyzer.stats.kafka.LaneDispatcher;
+import ru.practicum.analyzer.stats.service.RecommendationCache;
 import ru.practicum.analyzer.stats.service.UserActionService;
 import ru.practicum.stats.avro.UserActionAvro;
 
 import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+/**
+ * Читает действия пользователей и обрабатывает их в дорожках по ключу записи (ID пользователя),
+ * так что взаимодействия одного пользователя записываются по порядку и одной дорожкой.
+ */
 @Slf4j
 @Component
 public class UserActionProcessor implements Runnable {
     private final KafkaConsumer<Long, UserActionAvro> consumer;
-    private final UserActionService userActionService;
+    private final LaneDispatcher<UserActionAvro> dispatcher;
     private final KafkaConfigProperties kafkaConfig;
 
-    public UserActionProcessor(KafkaConfigProperties kafkaConfig, UserActionService userActionService) {
+    public UserActionProcessor(KafkaConfigProperties kafkaConfig, UserActionService userActionService,
+                               RecommendationCache recommendationCache) {
         this.kafkaConfig = kafkaConfig;
         consumer = new KafkaConsumer<>(kafkaConfig.getUserActionConsumerProps());
-        this.userActionService = userActionService;
+        dispatcher = new LaneDispatcher<>("user-action", kafkaConfig.getUserActionLanes(),
+                kafkaConfig.getMaxPendingPolls(), actions -> {
+            userActionService.addActions(actions);
+            Set<Long> userIds = actions.stream().map(UserActionAvro::getUserId).collect(Collectors.toSet());
+            recommendationCache.invalidateUsers(userIds);
+            log.info("Обработано действий пользователей: {}", actions.size());
+        });
     }
 
     @Override
     public void run() {
-        log.info("Запуск UserActionProcessor.");
+        log.info("Запуск UserActionProcessor, дорожек: {}", kafkaConfig.getUserActionLanes());
         try {
-            consumer.subscribe(List.of(kafkaConfig.getUserActionsTopic()));
+            consumer.subscribe(List.of(kafkaConfig.getUserActionsTopic()), new RevokeListener());
             Runtime.getRuntime().addShutdownHook(new Thread(consumer::wakeup));
 
+            Map<TopicPartition, OffsetAndMetadata> committed = Map.of();
             while (true) {
                 ConsumerRecords<Long, UserActionAvro> records = consumer.poll(Duration.ofMillis(500));
-                if (records.isEmpty()) continue;
-
-                for (ConsumerRecord<Long, UserActionAvro> record : records) {
-                    log.info("Запрос действий пользователя: topic = {}, partition = {}, offset = {}, value = {}",
-                            record.topic(), record.partition(), record.offset(), record.value());
-
-                    userActionService.addAction(record.value());
-
-                    log.info("Действия пользователя успешно добавлены.");
+                if (!records.isEmpty()) {
+                    for (ConsumerRecord<Long, UserActionAvro> record : records) {
+                        log.debug("Запрос действий пользователя: topic = {}, partition = {}, offset = {}, value = {}",
+                                record.topic(), record.partition(), record.offset(), record.value());
+                    }
+                    dispatcher.dispatch(records);
                 }
 
-                consumer.commitAsync((offsets, exception) -> {
-                    if (exception != null) {
-                        log.warn("Ошибка фиксации оффсетов. Offset: {}", offsets, exception);
-                    }
-                });
+                dispatcher.throwIfFailed();
+                Map<TopicPartition, OffsetAndMetadata> completed = dispatcher.completedOffsets();
+                if (!completed.equals(committed)) {
+                    committed = completed;
+                    consumer.commitAsync(completed, (offsets, exception) -> {
+                        if (exception != null) {
+                            log.warn("Ошибка фиксации оффсетов. Offset: {}", offsets, exception);
+                        }
+                    });
+                }
             }
 
         } catch (WakeupException e) {
             log.info("UserActionProcessor получил WakeupException, завершение работы");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("Ошибка обработки user actions", e);
         } finally {
             try {
-                consumer.commitSync();
+                dispatcher.awaitAll();
+                consumer.commitSync(dispatcher.completedOffsets());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } finally {
                 log.info("Закрываем consumer");
+                dispatcher.close();
                 consumer.close();
             }
         }
@@ -70,4 +95,29 @@ public class UserActionProcessor implements Runnable {
     public void stop() {
         consumer.wakeup();
     }
+
+    /**
+     * Перед отдачей партиций дожидается их обработки и фиксирует оффсеты, чтобы новый владелец
+     * не повторял уже записанное.
+     */
+    private class RevokeListener implements ConsumerRebalanceListener {
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            if (partitions.isEmpty()) {
+                return;
+            }
+            try {
+                dispatcher.awaitAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            consumer.commitSync(dispatcher.completedOffsets());
+            dispatcher.forget(partitions);
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+        }
+    }
 }
@@ -1,37 +0,0 @@
-package ru.practicum.analyzer.stats.avro;
-
-import org.apache.avro.Schema;
-import org.apache.avro.io.BinaryDecoder;
-import org.apache.avro.io.DatumReader;
-import org.apache.avro.io.DecoderFactory;
-import org.apache.avro.specific.SpecificDatumReader;
-import org.apache.avro.specific.SpecificRecordBase;
-import org.apache.kafka.common.errors.SerializationException;
-import org.apache.kafka.common.serialization.Deserializer;
-
-public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deserializer<T> {
-    private final DecoderFactory decoderFactory;
-    private final DatumReader<T> reader;
-
-    public BaseAvroDeserializer(Schema schema) {
-        this(DecoderFactory.get(), schema);
-    }
-
-    public BaseAvroDeserializer(DecoderFactory decoderFactory, Schema schema) {
-        this.decoderFactory = decoderFactory;
-        reader = new SpecificDatumReader<>(schema);
-    }
-
-    @Override
-    public T deserialize(String topic, byte[] data) {
-        try {
-            if (data != null) {
-                BinaryDecoder decoder = decoderFactory.binaryDecoder(data, null);
-                return this.reader.read(null, decoder);
-            }
-            return null;
-        } catch (Exception e) {
-            throw new SerializationException("Ошибка десериализации данных из топика [" + topic + "]", e);
-        }
-    }
-}
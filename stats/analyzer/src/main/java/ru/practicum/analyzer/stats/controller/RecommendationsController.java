@@ -21,8 +21,8 @@ public class RecommendationsController extends RecommendationsControllerGrpc.Rec
                                           StreamObserver<RecommendedEventProto> responseObserver) {
         try {
             log.info("Запрос на реккомендацию для юзера с ID = {}", request.getUserId());
-            analyzerService.getRecommendationsForUser(request).forEach(responseObserver::onNext);
-            responseObserver.onCompleted();
+            StreamingResponse.send(responseObserver, analyzerService.getRecommendationsForUser(request),
+                    "getRecommendationsForUser");
         } catch (Exception e) {
             log.error("Ошибка getRecommendationsForUser", e);
             responseObserver.onError(
@@ -36,8 +36,7 @@ public class RecommendationsController extends RecommendationsControllerGrpc.Rec
         try {
             log.info("Запрос на аналогичное событие с ID = {} от юзера с ID = {}", request.getEventId(),
                     request.getUserId());
-            analyzerService.getSimilarEvents(request).forEach(responseObserver::onNext);
-            responseObserver.onCompleted();
+            StreamingResponse.send(responseObserver, analyzerService.getSimilarEvents(request), "getSimilarEvents");
         } catch (Exception e) {
             log.error("Ошибка getSimilarEvents", e);
             responseObserver.onError(
@@ -45,14 +44,43 @@ public class RecommendationsController extends RecommendationsControllerGrpc.Rec
         }
     }
 
+    @Override
+    public void getRecommendationsForUsers(BatchUserPredictionsRequestProto request,
+                                           StreamObserver<KeyedRecommendedEventProto> responseObserver) {
+        try {
+            log.info("Пакетный запрос на реккомендации для {} юзеров", request.getUserIdCount());
+            StreamingResponse.send(responseObserver, analyzerService.getRecommendationsForUsers(request),
+                    "getRecommendationsForUsers");
+        } catch (Exception e) {
+            log.error("Ошибка getRecommendationsForUsers", e);
+            responseObserver.onError(
+                    new StatusRuntimeException(Status.INTERNAL.withDescription(e.getLocalizedMessage()).withCause(e)));
+        }
+    }
+
+    @Override
+    public void getSimilarEventsBatch(BatchSimilarEventsRequestProto request,
+                                      StreamObserver<KeyedRecommendedEventProto> responseObserver) {
+        try {
+            log.info("Пакетный запрос на аналогичные события для {} событий от юзера с ID = {}",
+                    request.getEventIdCount(), request.getUserId());
+            StreamingResponse.send(responseObserver, analyzerService.getSimilarEventsBatch(request),
+                    "getSimilarEventsBatch");
+        } catch (Exception e) {
+            log.error("Ошибка getSimilarEventsBatch", e);
+            responseObserver.onError(
+                    new StatusRuntimeException(Status.INTERNAL.withDescription(e.getLocalizedMessage()).withCause(e)));
+        }
+    }
+
     @Override
     public void getInteractionsCount(InteractionsCountRequestProto request,
                                      StreamObserver<RecommendedEventProto> responseObserver) {
         try {
             log.info("Запрос на подсчет количества взаимодействий для оценки событий с идентификаторами = {}",
                     request.getEventIdList());
-            analyzerService.getInteractionsCount(request).forEach(responseObserver::onNext);
-            responseObserver.onCompleted();
+            StreamingResponse.send(responseObserver, analyzerService.getInteractionsCount(request).iterator(),
+                    "getInteractionsCount");
         } catch (Exception e) {
             log.error("Ошибка getInteractionsCount", e);
             responseObserver.onError(
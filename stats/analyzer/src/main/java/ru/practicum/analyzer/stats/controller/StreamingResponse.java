@@ -0,0 +1,61 @@
+package ru.practicum.analyzer.stats.controller;
+
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+
+/**
+ * Отправка результата по мере готовности клиента: элементы берутся из итератора, пока
+ * {@link ServerCallStreamObserver#isReady()} разрешает запись, остальное дописывается из onReady-обработчика.
+ * В памяти не накапливается больше, чем держит сам итератор.
+ */
+@Slf4j
+final class StreamingResponse<T> implements Runnable {
+
+    private final ServerCallStreamObserver<T> observer;
+    private final Iterator<T> source;
+    private final String method;
+    private boolean finished;
+
+    private StreamingResponse(ServerCallStreamObserver<T> observer, Iterator<T> source, String method) {
+        this.observer = observer;
+        this.source = source;
+        this.method = method;
+    }
+
+    static <T> void send(StreamObserver<T> responseObserver, Iterator<T> source, String method) {
+        ServerCallStreamObserver<T> observer = (ServerCallStreamObserver<T>) responseObserver;
+        StreamingResponse<T> response = new StreamingResponse<>(observer, source, method);
+        observer.setOnCancelHandler(response::cancel);
+        observer.setOnReadyHandler(response);
+        response.run();
+    }
+
+    @Override
+    public synchronized void run() {
+        if (finished) {
+            return;
+        }
+        try {
+            while (observer.isReady() && source.hasNext()) {
+                observer.onNext(source.next());
+            }
+            if (!source.hasNext()) {
+                finished = true;
+                observer.onCompleted();
+            }
+        } catch (Exception e) {
+            finished = true;
+            log.error("Ошибка {}", method, e);
+            observer.onError(Status.INTERNAL.withDescription(e.getLocalizedMessage()).withCause(e).asRuntimeException());
+        }
+    }
+
+    private synchronized void cancel() {
+        finished = true;
+        log.debug("Клиент отменил {}", method);
+    }
+}
@@ -16,4 +16,7 @@ public class KafkaConfigProperties {
     private Properties eventSimilarityConsumerProps;
     private String userActionsTopic;
     private String eventsSimilarityTopic;
+    private int userActionLanes = 1;
+    private int eventSimilarityLanes = 1;
+    private int maxPendingPolls = 2;
 }
@@ -0,0 +1,161 @@
+package ru.practicum.analyzer.stats.kafka;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Параллельная обработка записей одного consumer-а по дорожкам. Дорожка выбирается по хешу ключа записи,
+ * поэтому записи с одним ключом обрабатываются одной дорожкой в порядке оффсетов. Каждая дорожка —
+ * однопоточный исполнитель на виртуальном потоке, так что ожидание базы не занимает потоки платформы.
+ * <p>
+ * Для фиксации по каждой партиции отдаётся оффсет, до которого обработаны все записи: poll, часть записей
+ * которого ещё в работе, задерживает фиксацию следующих poll-ов этой партиции.
+ * Методы, кроме самой обработки, вызываются только из потока consumer-а.
+ */
+@Slf4j
+public class LaneDispatcher<V> implements AutoCloseable {
+
+    private final String name;
+    private final ExecutorService[] lanes;
+    private final Consumer<List<V>> handler;
+    private final int maxPendingPolls;
+    private final Deque<CompletableFuture<Void>> pendingPolls = new ArrayDeque<>();
+    private final Map<TopicPartition, Deque<PendingOffset>> pendingOffsets = new HashMap<>();
+    private final Map<TopicPartition, OffsetAndMetadata> completedOffsets = new HashMap<>();
+    private Throwable failure;
+
+    public LaneDispatcher(String name, int lanes, int maxPendingPolls, Consumer<List<V>> handler) {
+        this.name = name;
+        this.lanes = new ExecutorService[Math.max(1, lanes)];
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = Executors.newSingleThreadExecutor(Thread.ofVirtual().name(name + "-lane-" + i).factory());
+        }
+        this.handler = handler;
+        this.maxPendingPolls = Math.max(1, maxPendingPolls);
+    }
+
+    /**
+     * Раздаёт записи poll-а по дорожкам и сразу возвращает управление. Если незавершённых poll-ов
+     * уже maxPendingPolls, сначала дожидается самого старого из них.
+     */
+    public void dispatch(ConsumerRecords<Long, V> records) throws InterruptedException {
+        while (pendingPolls.size() >= maxPendingPolls) {
+            await(pendingPolls.peekFirst());
+            pendingPolls.removeFirst();
+        }
+
+        List<List<V>> batches = new ArrayList<>(lanes.length);
+        for (int i = 0; i < lanes.length; i++) {
+            batches.add(new ArrayList<>());
+        }
+        Map<TopicPartition, BitSet> partitionLanes = new HashMap<>();
+        Map<TopicPartition, Long> nextOffsets = new HashMap<>();
+        for (ConsumerRecord<Long, V> record : records) {
+            int lane = laneOf(record.key());
+            batches.get(lane).add(record.value());
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            partitionLanes.computeIfAbsent(partition, k -> new BitSet(lanes.length)).set(lane);
+            nextOffsets.merge(partition, record.offset() + 1, Math::max);
+        }
+
+        CompletableFuture<?>[] laneResults = new CompletableFuture<?>[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            List<V> batch = batches.get(i);
+            laneResults[i] = batch.isEmpty()
+                    ? CompletableFuture.completedFuture(null)
+                    : CompletableFuture.runAsync(() -> handler.accept(batch), lanes[i]);
+        }
+        partitionLanes.forEach((partition, used) -> {
+            CompletableFuture<?>[] parts = used.stream().mapToObj(i -> laneResults[i]).toArray(CompletableFuture<?>[]::new);
+            pendingOffsets.computeIfAbsent(partition, k -> new ArrayDeque<>())
+                    .addLast(new PendingOffset(nextOffsets.get(partition), CompletableFuture.allOf(parts)));
+        });
+        pendingPolls.addLast(CompletableFuture.allOf(laneResults));
+        log.debug("{}: передано записей {} в дорожки, незавершённых poll-ов {}",
+                name, records.count(), pendingPolls.size());
+    }
+
+    private int laneOf(Long key) {
+        if (key == null) {
+            return 0;
+        }
+        return (int) (((key * 0x9E3779B97F4A7C15L) >>> 32) % lanes.length);
+    }
+
+    /**
+     * Оффсеты партиций, до которых все записи обработаны успешно. Обработка, завершившаяся ошибкой,
+     * останавливает продвижение оффсета своей партиции.
+     */
+    public Map<TopicPartition, OffsetAndMetadata> completedOffsets() {
+        for (Map.Entry<TopicPartition, Deque<PendingOffset>> entry : pendingOffsets.entrySet()) {
+            Deque<PendingOffset> offsets = entry.getValue();
+            while (!offsets.isEmpty() && offsets.peekFirst().done().isDone()) {
+                PendingOffset offset = offsets.peekFirst();
+                if (offset.done().isCompletedExceptionally()) {
+                    if (failure == null) {
+                        failure = offset.done().exceptionNow();
+                    }
+                    break;
+                }
+                completedOffsets.put(entry.getKey(), new OffsetAndMetadata(offset.nextOffset()));
+                offsets.removeFirst();
+            }
+        }
+        pendingPolls.removeIf(CompletableFuture::isDone);
+        return new HashMap<>(completedOffsets);
+    }
+
+    /**
+     * Бросает исключение, если обработка одной из дорожек завершилась ошибкой.
+     */
+    public void throwIfFailed() {
+        completedOffsets();
+        if (failure != null) {
+            throw new IllegalStateException("Ошибка обработки в " + name, failure);
+        }
+    }
+
+    /**
+     * Дожидается обработки всех переданных записей, в том числе завершившихся ошибкой.
+     */
+    public void awaitAll() throws InterruptedException {
+        for (CompletableFuture<Void> poll : pendingPolls) {
+            await(poll);
+        }
+    }
+
+    /**
+     * Забывает оффсеты партиций, которые больше не принадлежат этому consumer-у.
+     */
+    public void forget(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            pendingOffsets.remove(partition);
+            completedOffsets.remove(partition);
+        }
+    }
+
+    private void await(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // ошибка будет учтена в completedOffsets
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    private record PendingOffset(long nextOffset, CompletableFuture<Void> done) {
+    }
+}
@@ -0,0 +1,25 @@
+package ru.practicum.analyzer.stats.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+@Entity
+@Getter
+@Setter
+@ToString
+@Table(name = "event_interaction_totals")
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class EventInteractionTotal {
+
+    @Id
+    @Column(name = "event_id")
+    private Long eventId;
+
+    @Column(name = "rating_sum", nullable = false)
+    private Double ratingSum;
+
+    @Column(name = "interactions", nullable = false)
+    private Long interactions;
+}
@@ -6,7 +6,7 @@ import lombok.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "similarities")
+@Table(name = "similarities", uniqueConstraints = @UniqueConstraint(columnNames = {"event1", "event2"}))
 @Getter
 @Setter
 @ToString
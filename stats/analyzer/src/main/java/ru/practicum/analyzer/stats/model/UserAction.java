@@ -9,7 +9,7 @@ import java.time.LocalDateTime;
 @Getter
 @Setter
 @ToString
-@Table(name = "interactions")
+@Table(name = "interactions", uniqueConstraints = @UniqueConstraint(columnNames = {"user_id", "event_id"}))
 @NoArgsConstructor
 @AllArgsConstructor
 @Builder
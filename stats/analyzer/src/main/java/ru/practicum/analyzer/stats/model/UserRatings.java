@@ -0,0 +1,13 @@
+package ru.practicum.analyzer.stats.model;
+
+/**
+ * История пользователя в примитивных массивах: события и оценки, от самых недавних к более старым.
+ */
+public record UserRatings(long[] eventIds, double[] ratings) {
+
+    public static final UserRatings EMPTY = new UserRatings(new long[0], new double[0]);
+
+    public int size() {
+        return eventIds.length;
+    }
+}
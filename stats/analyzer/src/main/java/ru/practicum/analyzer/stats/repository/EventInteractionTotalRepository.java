@@ -0,0 +1,9 @@
+package ru.practicum.analyzer.stats.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import ru.practicum.analyzer.stats.model.EventInteractionTotal;
+
+@Repository
+public interface EventInteractionTotalRepository extends JpaRepository<EventInteractionTotal, Long> {
+}
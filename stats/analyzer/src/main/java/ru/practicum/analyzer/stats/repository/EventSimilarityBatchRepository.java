@@ -0,0 +1,32 @@
+package ru.practicum.analyzer.stats.repository;
+
+import ru.practicum.analyzer.stats.model.EventSimilarity;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface EventSimilarityBatchRepository {
+
+    /**
+     * Записывает пачку оценок одним многострочным upsert по ключу (event1, event2).
+     * Каждая пара сохраняется в обоих направлениях. Пары в пачке должны быть уникальны без учёта порядка
+     * событий. Оценка записывается безусловно: пачки одной пары приходят из одной дорожки в порядке топика.
+     *
+     * @return количество вставленных или обновлённых строк
+     */
+    int upsertAll(Collection<EventSimilarity> similarities);
+
+    /**
+     * Удаляет пары в обоих направлениях одним запросом.
+     *
+     * @return количество удалённых строк
+     */
+    int deleteAll(Collection<EventSimilarity> similarities);
+
+    /**
+     * Читает до limit сильнейших соседей каждого из событий одним запросом.
+     *
+     * @return оценки по возрастанию event1 и убыванию схожести; id и ts не заполняются
+     */
+    List<EventSimilarity> findTopByEvent1In(Collection<Long> events1, int limit);
+}
@@ -0,0 +1,110 @@
+package ru.practicum.analyzer.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.analyzer.stats.model.EventSimilarity;
+
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.List;
+
+@RequiredArgsConstructor
+public class EventSimilarityBatchRepositoryImpl implements EventSimilarityBatchRepository {
+
+    private static final String UPSERT_SQL = """
+            INSERT INTO similarities (event1, event2, similarity, ts)
+            SELECT * FROM unnest(?::bigint[], ?::bigint[], ?::float8[], ?::timestamp[])
+            ON CONFLICT (event1, event2) DO UPDATE
+            SET similarity = EXCLUDED.similarity, ts = EXCLUDED.ts
+            """;
+
+    private static final String DELETE_SQL = """
+            DELETE FROM similarities s
+            USING unnest(?::bigint[], ?::bigint[]) AS d(event1, event2)
+            WHERE s.event1 = d.event1 AND s.event2 = d.event2
+            """;
+
+    private static final String TOP_NEIGHBOURS_SQL = """
+            SELECT e.event1, s.event2, s.similarity
+            FROM unnest(?::bigint[]) AS e(event1)
+            CROSS JOIN LATERAL (
+                SELECT event2, similarity FROM similarities
+                WHERE similarities.event1 = e.event1
+                ORDER BY similarity DESC
+                LIMIT ?
+            ) s
+            ORDER BY e.event1, s.similarity DESC
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public int upsertAll(Collection<EventSimilarity> similarities) {
+        if (similarities.isEmpty()) {
+            return 0;
+        }
+        int size = similarities.size() * 2;
+        Long[] events1 = new Long[size];
+        Long[] events2 = new Long[size];
+        Double[] scores = new Double[size];
+        Timestamp[] timestamps = new Timestamp[size];
+        int i = 0;
+        for (EventSimilarity similarity : similarities) {
+            Timestamp timestamp = Timestamp.valueOf(similarity.getTimestamp());
+            events1[i] = similarity.getEvent1();
+            events2[i] = similarity.getEvent2();
+            scores[i] = similarity.getSimilarity();
+            timestamps[i++] = timestamp;
+            events1[i] = similarity.getEvent2();
+            events2[i] = similarity.getEvent1();
+            scores[i] = similarity.getSimilarity();
+            timestamps[i++] = timestamp;
+        }
+        return jdbcTemplate.update(UPSERT_SQL, ps -> {
+            Connection connection = ps.getConnection();
+            ps.setArray(1, connection.createArrayOf("bigint", events1));
+            ps.setArray(2, connection.createArrayOf("bigint", events2));
+            ps.setArray(3, connection.createArrayOf("float8", scores));
+            ps.setArray(4, connection.createArrayOf("timestamp", timestamps));
+        });
+    }
+
+    @Override
+    public int deleteAll(Collection<EventSimilarity> similarities) {
+        if (similarities.isEmpty()) {
+            return 0;
+        }
+        int size = similarities.size() * 2;
+        Long[] events1 = new Long[size];
+        Long[] events2 = new Long[size];
+        int i = 0;
+        for (EventSimilarity similarity : similarities) {
+            events1[i] = similarity.getEvent1();
+            events2[i++] = similarity.getEvent2();
+            events1[i] = similarity.getEvent2();
+            events2[i++] = similarity.getEvent1();
+        }
+        return jdbcTemplate.update(DELETE_SQL, ps -> {
+            Connection connection = ps.getConnection();
+            ps.setArray(1, connection.createArrayOf("bigint", events1));
+            ps.setArray(2, connection.createArrayOf("bigint", events2));
+        });
+    }
+
+    @Override
+    public List<EventSimilarity> findTopByEvent1In(Collection<Long> events1, int limit) {
+        if (events1.isEmpty()) {
+            return List.of();
+        }
+        Long[] ids = events1.toArray(Long[]::new);
+        return jdbcTemplate.query(TOP_NEIGHBOURS_SQL, ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids));
+            ps.setInt(2, limit);
+        }, (rs, rowNum) -> EventSimilarity.builder()
+                .event1(rs.getLong(1))
+                .event2(rs.getLong(2))
+                .similarity(rs.getDouble(3))
+                .build());
+    }
+}
@@ -2,23 +2,16 @@ package ru.practicum.analyzer.stats.repository;
 
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import ru.practicum.analyzer.stats.model.EventSimilarity;
 
+import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
-import java.util.Set;
 
-public interface EventSimilarityRepository extends JpaRepository<EventSimilarity, Long> {
+public interface EventSimilarityRepository extends JpaRepository<EventSimilarity, Long>, EventSimilarityBatchRepository {
 
-    Optional<EventSimilarity> findByEvent1AndEvent2(Long eventIdA, Long eventIdB);
+    List<EventSimilarity> findByEvent1OrderBySimilarityDesc(Long event1);
 
-    List<EventSimilarity> findTopByEvent1InOrEvent2InOrderBySimilarityDesc(
-            Set<Long> event1Ids,
-            Set<Long> event2Ids,
-            Pageable pageable);
+    List<EventSimilarity> findByEvent1OrderBySimilarityDesc(Long event1, Pageable pageable);
 
-    @Query("SELECT e FROM EventSimilarity e WHERE e.event1 = :eventId OR e.event2 = :eventId")
-    List<EventSimilarity> findByEvent1OrEvent2(@Param("eventId") Long eventId);
+    List<EventSimilarity> findByEvent1InOrderByEvent1AscSimilarityDesc(Collection<Long> events1);
 }
@@ -0,0 +1,18 @@
+package ru.practicum.analyzer.stats.repository;
+
+import ru.practicum.analyzer.stats.model.UserAction;
+
+import java.util.Collection;
+
+public interface UserActionBatchRepository {
+
+    /**
+     * Записывает пачку взаимодействий одним многострочным upsert по ключу (user_id, event_id).
+     * Пары в пачке должны быть уникальны; существующая строка обновляется, только если новая оценка
+     * не ниже сохранённой, время берётся наибольшее. В том же запросе обновляются итоги по событиям
+     * в event_interaction_totals.
+     *
+     * @return количество вставленных или обновлённых строк
+     */
+    int upsertAll(Collection<UserAction> actions);
+}
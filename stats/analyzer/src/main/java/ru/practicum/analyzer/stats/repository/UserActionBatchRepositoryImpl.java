@@ -0,0 +1,78 @@
+package ru.practicum.analyzer.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.analyzer.stats.model.UserAction;
+
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.util.Collection;
+
+@RequiredArgsConstructor
+public class UserActionBatchRepositoryImpl implements UserActionBatchRepository {
+
+    // Прежние оценки читаются из снимка до вставки, поэтому прирост итогов по событию считается
+    // только для новых взаимодействий и повышенных оценок. Итоги обновляются в порядке event_id:
+    // пакеты из разных дорожек блокируют общие строки в одном порядке и не взаимоблокируются.
+    private static final String UPSERT_SQL = """
+            WITH incoming AS (
+                SELECT * FROM unnest(?::bigint[], ?::bigint[], ?::float8[], ?::timestamp[])
+                    AS t(user_id, event_id, rating, ts)
+            ), previous AS (
+                SELECT i.user_id, i.event_id, i.rating
+                FROM interactions i
+                JOIN incoming n ON n.user_id = i.user_id AND n.event_id = i.event_id
+            ), upserted AS (
+                INSERT INTO interactions (user_id, event_id, rating, ts)
+                SELECT user_id, event_id, rating, ts FROM incoming
+                ON CONFLICT (user_id, event_id) DO UPDATE
+                SET rating = EXCLUDED.rating, ts = GREATEST(interactions.ts, EXCLUDED.ts)
+                WHERE interactions.rating <= EXCLUDED.rating
+                RETURNING user_id, event_id, rating
+            ), deltas AS (
+                SELECT u.event_id,
+                       sum(u.rating - coalesce(p.rating, 0)) AS rating_delta,
+                       count(*) FILTER (WHERE p.rating IS NULL) AS interactions_delta
+                FROM upserted u
+                LEFT JOIN previous p ON p.user_id = u.user_id AND p.event_id = u.event_id
+                GROUP BY u.event_id
+            ), totals AS (
+                INSERT INTO event_interaction_totals (event_id, rating_sum, interactions)
+                SELECT event_id, rating_delta, interactions_delta FROM deltas ORDER BY event_id
+                ON CONFLICT (event_id) DO UPDATE
+                SET rating_sum = event_interaction_totals.rating_sum + EXCLUDED.rating_sum,
+                    interactions = event_interaction_totals.interactions + EXCLUDED.interactions
+            )
+            SELECT count(*) FROM upserted
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public int upsertAll(Collection<UserAction> actions) {
+        if (actions.isEmpty()) {
+            return 0;
+        }
+        int size = actions.size();
+        Long[] userIds = new Long[size];
+        Long[] eventIds = new Long[size];
+        Double[] ratings = new Double[size];
+        Timestamp[] timestamps = new Timestamp[size];
+        int i = 0;
+        for (UserAction action : actions) {
+            userIds[i] = action.getUserId();
+            eventIds[i] = action.getEventId();
+            ratings[i] = action.getRating();
+            timestamps[i] = Timestamp.valueOf(action.getTimestamp());
+            i++;
+        }
+        Integer updated = jdbcTemplate.query(UPSERT_SQL, ps -> {
+            Connection connection = ps.getConnection();
+            ps.setArray(1, connection.createArrayOf("bigint", userIds));
+            ps.setArray(2, connection.createArrayOf("bigint", eventIds));
+            ps.setArray(3, connection.createArrayOf("float8", ratings));
+            ps.setArray(4, connection.createArrayOf("timestamp", timestamps));
+        }, rs -> rs.next() ? rs.getInt(1) : 0);
+        return updated == null ? 0 : updated;
+    }
+}
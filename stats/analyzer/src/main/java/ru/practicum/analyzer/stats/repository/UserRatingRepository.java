@@ -0,0 +1,19 @@
+package ru.practicum.analyzer.stats.repository;
+
+import ru.practicum.analyzer.stats.model.UserRatings;
+
+import java.util.Collection;
+import java.util.Map;
+
+public interface UserRatingRepository {
+
+    /**
+     * Возвращает все оценки пользователя, от самых недавних к более старым.
+     */
+    UserRatings findRatingsByUserId(long userId);
+
+    /**
+     * То же для нескольких пользователей одним запросом. Пользователи без оценок в результат не попадают.
+     */
+    Map<Long, UserRatings> findRatingsByUserIds(Collection<Long> userIds);
+}
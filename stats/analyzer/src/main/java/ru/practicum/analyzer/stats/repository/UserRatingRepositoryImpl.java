@@ -0,0 +1,79 @@
+package ru.practicum.analyzer.stats.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.analyzer.stats.model.UserRatings;
+
+import java.util.*;
+
+@RequiredArgsConstructor
+public class UserRatingRepositoryImpl implements UserRatingRepository {
+
+    private static final String RATINGS_SQL =
+            "SELECT event_id, rating FROM interactions WHERE user_id = ? ORDER BY ts DESC, event_id";
+    private static final String BATCH_RATINGS_SQL =
+            "SELECT user_id, event_id, rating FROM interactions WHERE user_id = ANY(?) ORDER BY user_id, ts DESC, event_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public UserRatings findRatingsByUserId(long userId) {
+        UserRatings ratings = jdbcTemplate.query(RATINGS_SQL, ps -> ps.setLong(1, userId), rs -> {
+            RatingsBuilder builder = new RatingsBuilder();
+            while (rs.next()) {
+                builder.add(rs.getLong(1), rs.getDouble(2));
+            }
+            return builder.build();
+        });
+        return ratings == null ? UserRatings.EMPTY : ratings;
+    }
+
+    @Override
+    public Map<Long, UserRatings> findRatingsByUserIds(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return Map.of();
+        }
+        Long[] ids = userIds.toArray(Long[]::new);
+        Map<Long, UserRatings> ratings = jdbcTemplate.query(BATCH_RATINGS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", ids)), rs -> {
+                    Map<Long, UserRatings> result = new HashMap<>();
+                    RatingsBuilder builder = new RatingsBuilder();
+                    long currentUser = 0;
+                    while (rs.next()) {
+                        long userId = rs.getLong(1);
+                        if (builder.size > 0 && userId != currentUser) {
+                            result.put(currentUser, builder.build());
+                            builder = new RatingsBuilder();
+                        }
+                        currentUser = userId;
+                        builder.add(rs.getLong(2), rs.getDouble(3));
+                    }
+                    if (builder.size > 0) {
+                        result.put(currentUser, builder.build());
+                    }
+                    return result;
+                });
+        return ratings == null ? Map.of() : ratings;
+    }
+
+    private static final class RatingsBuilder {
+        private long[] eventIds = new long[16];
+        private double[] values = new double[16];
+        private int size;
+
+        void add(long eventId, double rating) {
+            if (size == eventIds.length) {
+                eventIds = Arrays.copyOf(eventIds, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            eventIds[size] = eventId;
+            values[size++] = rating;
+        }
+
+        UserRatings build() {
+            return size == 0
+                    ? UserRatings.EMPTY
+                    : new UserRatings(Arrays.copyOf(eventIds, size), Arrays.copyOf(values, size));
+        }
+    }
+}
@@ -3,15 +3,11 @@ package ru.practicum.analyzer.stats.service;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
-import ru.practicum.analyzer.stats.model.EventSimilarity;
-import ru.practicum.analyzer.stats.model.UserAction;
-import ru.practicum.stats.proto.InteractionsCountRequestProto;
-import ru.practicum.stats.proto.RecommendedEventProto;
-import ru.practicum.stats.proto.SimilarEventsRequestProto;
-import ru.practicum.stats.proto.UserPredictionsRequestProto;
+import ru.practicum.analyzer.stats.model.UserRatings;
+import ru.practicum.stats.proto.*;
 
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
 
 @Service
 @RequiredArgsConstructor
@@ -19,65 +15,108 @@ import java.util.stream.Collectors;
 public class AnalyzerService {
 
     private final UserActionService userActionService;
-    private final EventSimilarityService eventSimilarityService;
-
-    public Iterable<RecommendedEventProto> getRecommendationsForUser(UserPredictionsRequestProto request) {
-        Set<Long> actionIds = userActionService.findByUserIdOrderByTimestampDesc(request.getUserId(),
-                request.getMaxResults());
+    private final NeighbourSource neighbourSource;
+    private final RecommendationEngine recommendationEngine;
+    private final RecommendationCache recommendationCache;
+
+    public Iterator<RecommendedEventProto> getRecommendationsForUser(UserPredictionsRequestProto request) {
+        return recommendationCache.getOrCompute(request.getUserId(), request.getMaxResults(), () -> {
+            UserRatings history = userActionService.findRatings(request.getUserId());
+            return recommendationEngine.recommend(history, request.getMaxResults());
+        });
+    }
 
-        List<EventSimilarity> similarities = eventSimilarityService.findNPairContainsEventIdsSortedDescScore(actionIds,
-                request.getMaxResults());
+    /**
+     * Рекомендации для нескольких пользователей: истории тех, кого нет в кэше, читаются одним запросом,
+     * соседи — одной выборкой на каждый этап расчёта. Повторяющиеся идентификаторы обрабатываются один раз.
+     */
+    public Iterator<KeyedRecommendedEventProto> getRecommendationsForUsers(BatchUserPredictionsRequestProto request) {
+        Set<Long> userIds = new LinkedHashSet<>(request.getUserIdList());
+        return new KeyedIterator(recommendationCache.getOrComputeAll(userIds, request.getMaxResults(), missing -> {
+            Map<Long, UserRatings> found = userActionService.findRatings(missing);
+            Map<Long, UserRatings> histories = new LinkedHashMap<>();
+            missing.forEach(userId -> histories.put(userId, found.getOrDefault(userId, UserRatings.EMPTY)));
+            return recommendationEngine.recommendAll(histories, request.getMaxResults());
+        }));
+    }
 
-        Map<Long, Double> eventIds = similarities.stream()
-                .collect(Collectors.toMap(o -> actionIds.contains(o.getEvent1()) ? o.getEvent2() : o.getEvent1(),
-                        EventSimilarity::getSimilarity, Double::max));
+    public Iterator<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request) {
+        EventScores userEvents = EventScores.of(userActionService.findRatings(request.getUserId()));
+        return similarEvents(neighbourSource, request.getEventId(), userEvents, request.getMaxResults());
+    }
 
-        return eventIds.entrySet().stream().map(o -> RecommendedEventProto.newBuilder()
-                .setEventId(o.getKey())
-                .setScore(o.getValue())
-                .build()).toList();
+    /**
+     * Похожие события для нескольких событий одного пользователя: история пользователя читается один раз,
+     * соседи всех событий — одной выборкой.
+     */
+    public Iterator<KeyedRecommendedEventProto> getSimilarEventsBatch(BatchSimilarEventsRequestProto request) {
+        Set<Long> eventIds = new LinkedHashSet<>(request.getEventIdList());
+        EventScores userEvents = EventScores.of(userActionService.findRatings(request.getUserId()));
+        NeighbourSource neighbours = neighbourSource.prefetch(eventIds);
+
+        Map<Long, Iterator<RecommendedEventProto>> results = new LinkedHashMap<>();
+        eventIds.forEach(eventId ->
+                results.put(eventId, similarEvents(neighbours, eventId, userEvents, request.getMaxResults())));
+        return new KeyedIterator(results);
     }
 
-    public Iterable<RecommendedEventProto> getSimilarEvents(SimilarEventsRequestProto request) {
-        List<EventSimilarity> similarPair = eventSimilarityService.findAllContainsEventId(request.getEventId());
-
-        Set<Long> ids = similarPair.stream().map(EventSimilarity::getEvent1).collect(Collectors.toSet());
-        Set<Long> otherIds = similarPair.stream().map(EventSimilarity::getEvent2).collect(Collectors.toSet());
-        ids.addAll(otherIds);
-
-        Set<Long> userEventIds = userActionService.findAllByUserIdAndEventIdIn(request.getUserId(), ids);
-
-        similarPair.removeIf(o -> userEventIds.contains(o.getEvent1()) && userEventIds.contains(o.getEvent2()));
-
-        return similarPair.stream()
-                .sorted(Comparator.comparing(EventSimilarity::getSimilarity, Comparator.reverseOrder()))
-                .limit(request.getMaxResults())
-                .map(o -> {
-                    long eventId = Objects.equals(o.getEvent1(), request.getEventId())
-                            ? o.getEvent2()
-                            : o.getEvent1();
-                    return RecommendedEventProto.newBuilder()
-                            .setEventId(eventId)
-                            .setScore(o.getSimilarity())
-                            .build();
-                }).toList();
+    private Iterator<RecommendedEventProto> similarEvents(NeighbourSource source, long eventId,
+                                                          EventScores userEvents, int maxResults) {
+        boolean interacted = userEvents.contains(eventId);
+
+        Iterator<NeighbourSource.Neighbour> neighbours = source.iterateNeighbours(eventId);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(neighbours, Spliterator.ORDERED), false)
+                .filter(o -> !interacted || !userEvents.contains(o.eventId()))
+                .limit(maxResults)
+                .map(o -> RecommendedEventProto.newBuilder()
+                        .setEventId(o.eventId())
+                        .setScore(o.score())
+                        .build())
+                .iterator();
     }
 
     public List<RecommendedEventProto> getInteractionsCount(InteractionsCountRequestProto request) {
         Set<Long> eventIds = new HashSet<>(request.getEventIdList());
 
-        List<UserAction> userActions = userActionService.findAllByEventIds(eventIds);
-
-        Map<Long, Double> actionMap = userActions.stream()
-                .collect(Collectors.groupingBy(
-                        UserAction::getEventId,
-                        Collectors.summingDouble(UserAction::getRating)));
-
-        return actionMap.entrySet().stream()
+        return userActionService.findInteractionTotals(eventIds).stream()
                 .map(o -> RecommendedEventProto.newBuilder()
-                        .setEventId(o.getKey())
-                        .setScore(o.getValue())
+                        .setEventId(o.getEventId())
+                        .setScore(o.getRatingSum())
                         .build())
                 .toList();
     }
+
+    /**
+     * Последовательно выдаёт результаты по ключам, помечая каждое событие его ключом.
+     */
+    private static final class KeyedIterator implements Iterator<KeyedRecommendedEventProto> {
+        private final Iterator<Map.Entry<Long, Iterator<RecommendedEventProto>>> groups;
+        private long key;
+        private Iterator<RecommendedEventProto> current = Collections.emptyIterator();
+
+        KeyedIterator(Map<Long, Iterator<RecommendedEventProto>> results) {
+            this.groups = results.entrySet().iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && groups.hasNext()) {
+                Map.Entry<Long, Iterator<RecommendedEventProto>> group = groups.next();
+                key = group.getKey();
+                current = group.getValue();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public KeyedRecommendedEventProto next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return KeyedRecommendedEventProto.newBuilder()
+                    .setKey(key)
+                    .setEvent(current.next())
+                    .build();
+        }
+    }
 }
@@ -0,0 +1,77 @@
+package ru.practicum.analyzer.stats.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.analyzer.stats.model.EventSimilarity;
+import ru.practicum.analyzer.stats.repository.EventSimilarityRepository;
+
+import java.util.*;
+
+/**
+ * Соседи событий напрямую из таблицы similarities — используется, если граф в памяти отключён.
+ * Как и граф, источник отдаёт не больше analyzer.graph.max-neighbours соседей события, если лимит задан:
+ * запрос без лимита читал бы все строки популярного события.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(value = "analyzer.graph.enabled", havingValue = "false")
+public class DatabaseNeighbourSource implements NeighbourSource {
+
+    private final EventSimilarityRepository repository;
+    private final GraphProperties properties;
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Neighbour> getNeighbours(long eventId, int limit) {
+        int capped = cap(limit);
+        List<EventSimilarity> similarities = capped > 0
+                ? repository.findByEvent1OrderBySimilarityDesc(eventId, PageRequest.of(0, capped))
+                : repository.findByEvent1OrderBySimilarityDesc(eventId);
+        return similarities.stream()
+                .map(o -> new Neighbour(o.getEvent2(), o.getSimilarity()))
+                .toList();
+    }
+
+    /**
+     * Читает соседей всех переданных событий одним запросом.
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public NeighbourSource prefetch(Collection<Long> eventIds) {
+        Map<Long, List<Neighbour>> neighbours = new HashMap<>();
+        if (!eventIds.isEmpty()) {
+            int capped = cap(0);
+            List<EventSimilarity> similarities = capped > 0
+                    ? repository.findTopByEvent1In(eventIds, capped)
+                    : repository.findByEvent1InOrderByEvent1AscSimilarityDesc(eventIds);
+            for (EventSimilarity o : similarities) {
+                neighbours.computeIfAbsent(o.getEvent1(), k -> new ArrayList<>())
+                        .add(new Neighbour(o.getEvent2(), o.getSimilarity()));
+            }
+        }
+        return new PrefetchedNeighbours(neighbours);
+    }
+
+    /**
+     * @return запрошенный лимит, ограниченный max-neighbours; 0 — без лимита
+     */
+    private int cap(int limit) {
+        int maxNeighbours = properties.getMaxNeighbours();
+        if (maxNeighbours <= 0) {
+            return limit;
+        }
+        return limit > 0 ? Math.min(limit, maxNeighbours) : maxNeighbours;
+    }
+
+    private record PrefetchedNeighbours(Map<Long, List<Neighbour>> neighbours) implements NeighbourSource {
+
+        @Override
+        public List<Neighbour> getNeighbours(long eventId, int limit) {
+            List<Neighbour> result = neighbours.getOrDefault(eventId, List.of());
+            return limit > 0 && limit < result.size() ? result.subList(0, limit) : result;
+        }
+    }
+}
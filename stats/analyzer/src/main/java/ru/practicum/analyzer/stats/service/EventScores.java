@@ -0,0 +1,95 @@
+package ru.practicum.analyzer.stats.service;
+
+import ru.practicum.analyzer.stats.model.UserRatings;
+
+import java.util.Arrays;
+
+/**
+ * Открытая адресация long → double, значение NaN означает отсутствие ключа.
+ * Таблица растёт по мере заполнения, заполненность не превышает половины.
+ */
+final class EventScores {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MAX_INITIAL_CAPACITY = 1 << 16;
+
+    private long[] keys;
+    private double[] values;
+    private int mask;
+    private int size;
+
+    EventScores(int expected) {
+        int capacity = Integer.highestOneBit(Math.min(Math.max(4, expected), MAX_INITIAL_CAPACITY) * 2 - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new double[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+    }
+
+    static EventScores of(UserRatings ratings) {
+        EventScores scores = new EventScores(ratings.size());
+        for (int i = 0; i < ratings.size(); i++) {
+            scores.putMax(ratings.eventIds()[i], ratings.ratings()[i]);
+        }
+        return scores;
+    }
+
+    private int indexOf(long key) {
+        int index = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    boolean contains(long key) {
+        return keys[indexOf(key)] == key;
+    }
+
+    double get(long key) {
+        int index = indexOf(key);
+        return keys[index] == key ? values[index] : Double.NaN;
+    }
+
+    void putMax(long key, double value) {
+        int index = indexOf(key);
+        if (keys[index] != key) {
+            keys[index] = key;
+            values[index] = value;
+            if (++size * 2 > keys.length) {
+                grow();
+            }
+        } else if (value > values[index]) {
+            values[index] = value;
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    void forEach(Consumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface Consumer {
+        void accept(long eventId, double score);
+    }
+}
@@ -2,8 +2,6 @@ package ru.practicum.analyzer.stats.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.analyzer.stats.model.EventSimilarity;
@@ -12,8 +10,11 @@ import ru.practicum.stats.avro.EventSimilarityAvro;
 
 import java.time.LocalDateTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 @Slf4j
 @RequiredArgsConstructor
@@ -22,28 +23,42 @@ public class EventSimilarityService {
 
     private final EventSimilarityRepository repository;
 
+    @Transactional
     public void addSimilarity(EventSimilarityAvro value) {
-
-        EventSimilarity eventSimilarity = EventSimilarity.builder()
-                .event1(value.getEventA())
-                .event2(value.getEventB())
-                .similarity(value.getScore())
-                .timestamp(LocalDateTime.ofInstant(value.getTimestamp(), ZoneId.systemDefault()))
-                .build();
-
-        repository.findByEvent1AndEvent2(eventSimilarity.getEvent1(), eventSimilarity.getEvent2())
-                .ifPresent(oldEventSimilarity -> eventSimilarity.setId(oldEventSimilarity.getId()));
-        repository.save(eventSimilarity);
+        addSimilarities(List.of(value));
     }
 
-    @Transactional(readOnly = true)
-    public List<EventSimilarity> findNPairContainsEventIdsSortedDescScore(Set<Long> eventIds, int maxResults) {
-        Pageable pageable = PageRequest.of(0, maxResults);
-        return repository.findTopByEvent1InOrEvent2InOrderBySimilarityDesc(eventIds, eventIds, pageable);
+    /**
+     * Сохраняет пачку оценок одним запросом. Повторы одной пары схлопываются до последней по порядку
+     * в топике: агрегатор отправляет оценки пары в порядке расчёта, а timestamp оценки — время действия,
+     * которое не растёт вместе с версией оценки. Нулевая оценка — отзыв пары агрегатором: пара удаляется.
+     */
+    @Transactional
+    public void addSimilarities(Collection<EventSimilarityAvro> values) {
+        Map<EventPair, EventSimilarity> latest = new LinkedHashMap<>();
+        for (EventSimilarityAvro value : values) {
+            EventSimilarity eventSimilarity = EventSimilarity.builder()
+                    .event1(value.getEventA())
+                    .event2(value.getEventB())
+                    .similarity(value.getScore())
+                    .timestamp(LocalDateTime.ofInstant(value.getTimestamp(), ZoneId.systemDefault()))
+                    .build();
+            EventPair pair = new EventPair(Math.min(value.getEventA(), value.getEventB()),
+                    Math.max(value.getEventA(), value.getEventB()));
+            // Повторная вставка ключа не меняет порядок, а значение заменяет
+            latest.put(pair, eventSimilarity);
+        }
+        List<EventSimilarity> upserts = new ArrayList<>(latest.size());
+        List<EventSimilarity> deletions = new ArrayList<>();
+        for (EventSimilarity similarity : latest.values()) {
+            (similarity.getSimilarity() > 0 ? upserts : deletions).add(similarity);
+        }
+        int updated = repository.upsertAll(upserts);
+        int deleted = repository.deleteAll(deletions);
+        log.debug("Сохранено оценок схожести: получено {}, уникальных пар {}, записано {}, удалено {}",
+                values.size(), latest.size(), updated, deleted);
     }
 
-    @Transactional(readOnly = true)
-    public List<EventSimilarity> findAllContainsEventId(long eventId) {
-        return repository.findByEvent1OrEvent2(eventId);
+    private record EventPair(long eventA, long eventB) {
     }
 }
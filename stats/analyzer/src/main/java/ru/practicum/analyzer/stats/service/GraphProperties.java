@@ -0,0 +1,17 @@
+package ru.practicum.analyzer.stats.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("analyzer.graph")
+public class GraphProperties {
+    private boolean enabled = true;
+    private int maxNeighbours;
+    private int loadThreads = Runtime.getRuntime().availableProcessors();
+    private int loadFetchSize = 10_000;
+}
@@ -0,0 +1,62 @@
+package ru.practicum.analyzer.stats.service;
+
+import ru.practicum.stats.avro.EventSimilarityAvro;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Источник соседей события по оценке схожести.
+ */
+public interface NeighbourSource {
+
+    /**
+     * Возвращает соседей события в порядке убывания схожести.
+     *
+     * @param limit максимальное количество соседей, 0 — все, но не больше analyzer.graph.max-neighbours
+     */
+    List<Neighbour> getNeighbours(long eventId, int limit);
+
+    /**
+     * Лениво перебирает соседей события в порядке убывания схожести.
+     */
+    default Iterator<Neighbour> iterateNeighbours(long eventId) {
+        return getNeighbours(eventId, 0).iterator();
+    }
+
+    /**
+     * Обходит соседей события в порядке убывания схожести, пока visitor возвращает true.
+     *
+     * @param limit максимальное количество соседей, 0 — все
+     */
+    default void forEachNeighbour(long eventId, int limit, NeighbourVisitor visitor) {
+        for (Neighbour neighbour : getNeighbours(eventId, limit)) {
+            if (!visitor.visit(neighbour.eventId(), neighbour.score())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Готовит соседей нескольких событий для пакетного запроса. Возвращённый источник отвечает
+     * как минимум по переданным событиям; источнику в памяти загружать нечего.
+     */
+    default NeighbourSource prefetch(Collection<Long> eventIds) {
+        return this;
+    }
+
+    /**
+     * Учитывает оценки, уже сохранённые в базе; пара с нулевой оценкой удаляется.
+     */
+    default void update(Collection<EventSimilarityAvro> similarities) {
+    }
+
+    record Neighbour(long eventId, double score) {
+    }
+
+    @FunctionalInterface
+    interface NeighbourVisitor {
+        boolean visit(long eventId, double score);
+    }
+}
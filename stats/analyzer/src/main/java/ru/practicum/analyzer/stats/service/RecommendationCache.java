@@ -0,0 +1,261 @@
+package ru.practicum.analyzer.stats.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+import ru.practicum.stats.proto.RecommendedEventProto;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * LRU-кэш рекомендаций по ключу (пользователь, max_results). Запись сбрасывается, когда приходит
+ * действие пользователя или меняется схожесть любого события из её результата; ttl ограничивает
+ * устаревание из-за новых кандидатов, которые в результат ещё не попали.
+ * <p>
+ * Расчёт идёт вне блокировки. Чтобы результат, посчитанный по данным до сброса, не попал в кэш
+ * после него, сбросы отмечаются номерами в полосах по хешу пользователя и события: запись
+ * сохраняется, только если с начала расчёта её полосы не сбрасывались.
+ * <p>
+ * Сбросы приходят от consumer-ов этого процесса, так что кэш рассчитан на единственный
+ * экземпляр анализатора: изменения, прочитанные другим экземпляром, его не сбросят.
+ */
+@Component
+public class RecommendationCache {
+
+    private static final int STAMP_BITS = 12;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Set<Key>> keysByUser = new HashMap<>();
+    private final Map<Long, Set<Key>> keysByEvent = new HashMap<>();
+    private final long[] userStamps = new long[1 << STAMP_BITS];
+    private final long[] eventStamps = new long[1 << STAMP_BITS];
+    private long sequence;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+    private final Counter invalidations;
+
+    public RecommendationCache(RecommendationProperties properties, MeterRegistry meterRegistry) {
+        this.maxEntries = properties.getCacheMaxEntries();
+        this.ttlNanos = properties.getCacheTtl().toNanos();
+        this.hits = meterRegistry.counter("analyzer.recommendations.cache", "result", "hit");
+        this.misses = meterRegistry.counter("analyzer.recommendations.cache", "result", "miss");
+        this.evictions = meterRegistry.counter("analyzer.recommendations.cache.removals", "cause", "size");
+        this.invalidations = meterRegistry.counter("analyzer.recommendations.cache.removals", "cause", "invalidated");
+        meterRegistry.gauge("analyzer.recommendations.cache.size", this, RecommendationCache::size);
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Возвращает рекомендации из кэша или считает их через loader и сохраняет.
+     */
+    public Iterator<RecommendedEventProto> getOrCompute(long userId, int maxResults,
+                                                        Supplier<Iterator<RecommendedEventProto>> loader) {
+        if (!isEnabled()) {
+            return loader.get();
+        }
+        Key key = new Key(userId, maxResults);
+        long stamp;
+        synchronized (this) {
+            Entry cached = lookup(key);
+            if (cached != null) {
+                return cached.iterator();
+            }
+            stamp = sequence;
+        }
+        Entry computed = Entry.of(loader.get(), System.nanoTime() + ttlNanos);
+        put(key, computed, stamp);
+        return computed.iterator();
+    }
+
+    /**
+     * То же для нескольких пользователей: loader получает только тех, кого нет в кэше.
+     *
+     * @return итераторы рекомендаций в порядке userIds
+     */
+    public Map<Long, Iterator<RecommendedEventProto>> getOrComputeAll(
+            Collection<Long> userIds, int maxResults,
+            Function<Collection<Long>, Map<Long, Iterator<RecommendedEventProto>>> loader) {
+        if (!isEnabled()) {
+            return loader.apply(userIds);
+        }
+        Map<Long, Entry> cached = new HashMap<>();
+        List<Long> missing = new ArrayList<>();
+        long stamp;
+        synchronized (this) {
+            for (Long userId : userIds) {
+                Entry entry = lookup(new Key(userId, maxResults));
+                if (entry != null) {
+                    cached.put(userId, entry);
+                } else {
+                    missing.add(userId);
+                }
+            }
+            stamp = sequence;
+        }
+        if (!missing.isEmpty()) {
+            long expiresAt = System.nanoTime() + ttlNanos;
+            loader.apply(missing).forEach((userId, recommendations) -> {
+                Entry computed = Entry.of(recommendations, expiresAt);
+                put(new Key(userId, maxResults), computed, stamp);
+                cached.put(userId, computed);
+            });
+        }
+        Map<Long, Iterator<RecommendedEventProto>> result = new LinkedHashMap<>();
+        for (Long userId : userIds) {
+            Entry entry = cached.get(userId);
+            result.put(userId, entry == null ? Collections.emptyIterator() : entry.iterator());
+        }
+        return result;
+    }
+
+    /**
+     * Сбрасывает рекомендации пользователей, у которых появились новые действия.
+     */
+    public synchronized void invalidateUsers(Collection<Long> userIds) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (Long userId : userIds) {
+            userStamps[stripe(userId)] = ++sequence;
+            removeAll(keysByUser.get(userId));
+        }
+    }
+
+    /**
+     * Сбрасывает рекомендации, в результате которых есть события с изменившейся схожестью.
+     */
+    public synchronized void invalidateEvents(Collection<Long> eventIds) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (Long eventId : eventIds) {
+            eventStamps[stripe(eventId)] = ++sequence;
+            removeAll(keysByEvent.get(eventId));
+        }
+    }
+
+    private Entry lookup(Key key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+            remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return entry;
+    }
+
+    private synchronized void put(Key key, Entry entry, long stamp) {
+        if (userStamps[stripe(key.userId())] > stamp) {
+            return;
+        }
+        for (long eventId : entry.eventIds) {
+            if (eventStamps[stripe(eventId)] > stamp) {
+                return;
+            }
+        }
+        remove(key);
+        entries.put(key, entry);
+        keysByUser.computeIfAbsent(key.userId(), k -> new HashSet<>()).add(key);
+        for (long eventId : entry.eventIds) {
+            keysByEvent.computeIfAbsent(eventId, k -> new HashSet<>()).add(key);
+        }
+        while (entries.size() > maxEntries) {
+            remove(entries.keySet().iterator().next());
+            evictions.increment();
+        }
+    }
+
+    private void removeAll(Set<Key> keys) {
+        if (keys == null) {
+            return;
+        }
+        for (Key key : List.copyOf(keys)) {
+            remove(key);
+            invalidations.increment();
+        }
+    }
+
+    private void remove(Key key) {
+        Entry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        unindex(keysByUser, key.userId(), key);
+        for (long eventId : entry.eventIds) {
+            unindex(keysByEvent, eventId, key);
+        }
+    }
+
+    private static void unindex(Map<Long, Set<Key>> index, long id, Key key) {
+        Set<Key> keys = index.get(id);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            index.remove(id);
+        }
+    }
+
+    private static int stripe(long id) {
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> (64 - STAMP_BITS));
+    }
+
+    private record Key(long userId, int maxResults) {
+    }
+
+    private record Entry(long[] eventIds, double[] scores, long expiresAt) {
+
+        static Entry of(Iterator<RecommendedEventProto> recommendations, long expiresAt) {
+            long[] eventIds = new long[16];
+            double[] scores = new double[16];
+            int size = 0;
+            while (recommendations.hasNext()) {
+                RecommendedEventProto event = recommendations.next();
+                if (size == eventIds.length) {
+                    eventIds = Arrays.copyOf(eventIds, size * 2);
+                    scores = Arrays.copyOf(scores, size * 2);
+                }
+                eventIds[size] = event.getEventId();
+                scores[size++] = event.getScore();
+            }
+            return new Entry(Arrays.copyOf(eventIds, size), Arrays.copyOf(scores, size), expiresAt);
+        }
+
+        Iterator<RecommendedEventProto> iterator() {
+            return new Iterator<>() {
+                private int position;
+
+                @Override
+                public boolean hasNext() {
+                    return position < eventIds.length;
+                }
+
+                @Override
+                public RecommendedEventProto next() {
+                    if (position >= eventIds.length) {
+                        throw new NoSuchElementException();
+                    }
+                    RecommendedEventProto event = RecommendedEventProto.newBuilder()
+                            .setEventId(eventIds[position])
+                            .setScore(scores[position])
+                            .build();
+                    position++;
+                    return event;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package ru.practicum.analyzer.stats.service;
+
+import org.springframework.stereotype.Component;
+import ru.practicum.analyzer.stats.model.UserRatings;
+import ru.practicum.stats.proto.RecommendedEventProto;
+
+import java.util.*;
+
+/**
+ * Item-based коллаборативная фильтрация.
+ * <ol>
+ *     <li>Кандидаты — ещё не просмотренные пользователем соседи его недавних событий;
+ *     остаются лучшие по схожести.</li>
+ *     <li>Оценка кандидата — среднее оценок пользователя по K ближайшим к кандидату событиям
+ *     из его истории, взвешенное схожестью.</li>
+ * </ol>
+ * Все промежуточные данные хранятся в примитивных массивах.
+ */
+@Component
+public class RecommendationEngine {
+
+    private final NeighbourSource neighbourSource;
+    private final int recentEvents;
+    private final int nearestNeighbours;
+
+    public RecommendationEngine(NeighbourSource neighbourSource, RecommendationProperties properties) {
+        this.neighbourSource = neighbourSource;
+        this.recentEvents = properties.getRecentEvents();
+        this.nearestNeighbours = properties.getNearestNeighbours();
+    }
+
+    /**
+     * Возвращает рекомендации по убыванию оценки; сообщения создаются по мере чтения итератора.
+     */
+    public Iterator<RecommendedEventProto> recommend(UserRatings history, int maxResults) {
+        if (history.size() == 0 || maxResults <= 0) {
+            return Collections.emptyIterator();
+        }
+        EventScores seen = EventScores.of(history);
+        TopScores candidates = selectCandidates(history, seen, maxResults, neighbourSource);
+        return predict(candidates, seen, maxResults, neighbourSource);
+    }
+
+    /**
+     * Рекомендации для нескольких пользователей. Соседи недавних событий всех пользователей,
+     * а затем соседи всех отобранных кандидатов читаются из источника одной выборкой на этап.
+     *
+     * @return итераторы рекомендаций в порядке ключей histories
+     */
+    public Map<Long, Iterator<RecommendedEventProto>> recommendAll(Map<Long, UserRatings> histories, int maxResults) {
+        Map<Long, Iterator<RecommendedEventProto>> result = new LinkedHashMap<>();
+        if (maxResults <= 0) {
+            histories.keySet().forEach(userId -> result.put(userId, Collections.emptyIterator()));
+            return result;
+        }
+
+        Set<Long> recent = new HashSet<>();
+        histories.values().forEach(history -> {
+            for (int i = 0; i < Math.min(recentEvents, history.size()); i++) {
+                recent.add(history.eventIds()[i]);
+            }
+        });
+        NeighbourSource recentNeighbours = neighbourSource.prefetch(recent);
+
+        Map<Long, EventScores> seen = new HashMap<>();
+        Map<Long, TopScores> candidates = new HashMap<>();
+        Set<Long> candidateIds = new HashSet<>();
+        histories.forEach((userId, history) -> {
+            if (history.size() == 0) {
+                return;
+            }
+            EventScores userSeen = EventScores.of(history);
+            TopScores userCandidates = selectCandidates(history, userSeen, maxResults, recentNeighbours);
+            for (int i = 0; i < userCandidates.size(); i++) {
+                candidateIds.add(userCandidates.idAt(i));
+            }
+            seen.put(userId, userSeen);
+            candidates.put(userId, userCandidates);
+        });
+        NeighbourSource candidateNeighbours = neighbourSource.prefetch(candidateIds);
+
+        histories.keySet().forEach(userId -> {
+            TopScores userCandidates = candidates.get(userId);
+            result.put(userId, userCandidates == null
+                    ? Collections.emptyIterator()
+                    : predict(userCandidates, seen.get(userId), maxResults, candidateNeighbours));
+        });
+        return result;
+    }
+
+    private TopScores selectCandidates(UserRatings history, EventScores seen, int maxResults, NeighbourSource source) {
+        int recent = Math.min(recentEvents, history.size());
+        int expectedCandidates = (int) Math.min((long) recent * maxResults, Integer.MAX_VALUE);
+        CandidateCollector collector = new CandidateCollector(seen, new EventScores(expectedCandidates), maxResults);
+        for (int i = 0; i < recent; i++) {
+            collector.found = 0;
+            source.forEachNeighbour(history.eventIds()[i], 0, collector);
+        }
+        TopScores bestCandidates = new TopScores(maxResults);
+        collector.candidates.forEach(bestCandidates::offer);
+        return bestCandidates;
+    }
+
+    private Iterator<RecommendedEventProto> predict(TopScores candidates, EventScores seen, int maxResults,
+                                                    NeighbourSource source) {
+        TopScores predictions = new TopScores(maxResults);
+        Prediction prediction = new Prediction(seen, nearestNeighbours);
+        for (int i = 0; i < candidates.size(); i++) {
+            long candidateId = candidates.idAt(i);
+            prediction.reset();
+            source.forEachNeighbour(candidateId, 0, prediction);
+            if (prediction.weights > 0) {
+                predictions.offer(candidateId, prediction.weightedRatings / prediction.weights);
+            }
+        }
+        return predictions.drainDescending();
+    }
+
+    /**
+     * Собирает непросмотренных соседей события, оставляя для каждого наибольшую схожесть.
+     */
+    private static final class CandidateCollector implements NeighbourSource.NeighbourVisitor {
+        private final EventScores seen;
+        private final EventScores candidates;
+        private final int limit;
+        private int found;
+
+        CandidateCollector(EventScores seen, EventScores candidates, int limit) {
+            this.seen = seen;
+            this.candidates = candidates;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean visit(long eventId, double score) {
+            if (seen.contains(eventId)) {
+                return true;
+            }
+            candidates.putMax(eventId, score);
+            return ++found < limit;
+        }
+    }
+
+    /**
+     * Накапливает взвешенную схожестью сумму оценок по K ближайшим событиям из истории.
+     */
+    private static final class Prediction implements NeighbourSource.NeighbourVisitor {
+        private final EventScores seen;
+        private final int limit;
+        private double weightedRatings;
+        private double weights;
+        private int found;
+
+        Prediction(EventScores seen, int limit) {
+            this.seen = seen;
+            this.limit = limit;
+        }
+
+        void reset() {
+            weightedRatings = 0;
+            weights = 0;
+            found = 0;
+        }
+
+        @Override
+        public boolean visit(long eventId, double score) {
+            double rating = seen.get(eventId);
+            if (Double.isNaN(rating)) {
+                return true;
+            }
+            weightedRatings += score * rating;
+            weights += score;
+            return ++found < limit;
+        }
+    }
+}
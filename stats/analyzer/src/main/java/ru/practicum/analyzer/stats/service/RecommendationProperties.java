@@ -0,0 +1,19 @@
+package ru.practicum.analyzer.stats.service;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@Component
+@ConfigurationProperties("analyzer.recommendations")
+public class RecommendationProperties {
+    private int recentEvents = 20;
+    private int nearestNeighbours = 10;
+    private int cacheMaxEntries;
+    private Duration cacheTtl = Duration.ofMinutes(1);
+}
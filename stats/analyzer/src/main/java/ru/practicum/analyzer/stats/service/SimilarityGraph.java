@@ -0,0 +1,290 @@
+package ru.practicum.analyzer.stats.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Граф схожести событий в памяти: для каждого события — массивы соседей и оценок,
+ * отсортированные по убыванию оценки. Массивы события неизменяемы и заменяются целиком при обновлении,
+ * поэтому чтение из gRPC-потоков не требует блокировок.
+ * Загружается из базы при старте и дальше обновляется из EventSimilarityProcessor, поэтому
+ * видит только оценки партиций своего экземпляра; анализатор запускается одним экземпляром.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(value = "analyzer.graph.enabled", havingValue = "true", matchIfMissing = true)
+public class SimilarityGraph implements NeighbourSource {
+
+    private static final String ID_RANGE_SQL = "SELECT min(id), max(id) FROM similarities";
+    private static final String LOAD_SQL =
+            "SELECT event1, event2, similarity FROM similarities WHERE id >= ? AND id <= ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxNeighbours;
+    private final int loadThreads;
+    private final int loadFetchSize;
+    private final ConcurrentHashMap<Long, Adjacency> adjacency = new ConcurrentHashMap<>();
+
+    public SimilarityGraph(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                           GraphProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.maxNeighbours = properties.getMaxNeighbours();
+        this.loadThreads = Math.max(1, properties.getLoadThreads());
+        this.loadFetchSize = properties.getLoadFetchSize();
+    }
+
+    @PostConstruct
+    public void load() {
+        long start = System.nanoTime();
+        Map<String, Object> range = jdbcTemplate.queryForMap(ID_RANGE_SQL);
+        if (range.get("min") == null) {
+            log.info("Таблица схожести пуста, граф начинает с нуля");
+            return;
+        }
+        long minId = ((Number) range.get("min")).longValue();
+        long maxId = ((Number) range.get("max")).longValue();
+        long step = (maxId - minId) / loadThreads + 1;
+
+        ExecutorService executor = Executors.newFixedThreadPool(loadThreads, r -> {
+            Thread thread = new Thread(r);
+            thread.setName("SimilarityGraphLoader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Map<Long, AdjacencyBuilder>>> parts = new ArrayList<>(loadThreads);
+            for (long from = minId; from <= maxId; from += step) {
+                long to = Math.min(maxId, from + step - 1);
+                long rangeFrom = from;
+                parts.add(executor.submit(() -> loadRange(rangeFrom, to)));
+            }
+            Map<Long, AdjacencyBuilder> merged = new HashMap<>();
+            for (Future<Map<Long, AdjacencyBuilder>> part : parts) {
+                part.get().forEach((eventId, builder) -> merged.merge(eventId, builder, AdjacencyBuilder::addAll));
+            }
+            merged.forEach((eventId, builder) -> adjacency.put(eventId, builder.build(maxNeighbours)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Загрузка графа схожести прервана", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка загрузки графа схожести", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        log.info("Граф схожести загружен: событий {}, за {} мс",
+                adjacency.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private Map<Long, AdjacencyBuilder> loadRange(long fromId, long toId) {
+        Map<Long, AdjacencyBuilder> builders = new HashMap<>();
+        // Потоковое чтение (fetch size) в драйвере Postgres работает только внутри транзакции
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(con -> {
+            var statement = con.prepareStatement(LOAD_SQL);
+            statement.setFetchSize(loadFetchSize);
+            statement.setLong(1, fromId);
+            statement.setLong(2, toId);
+            return statement;
+        }, rs -> {
+            long event1 = rs.getLong(1);
+            long event2 = rs.getLong(2);
+            float score = rs.getFloat(3);
+            builders.computeIfAbsent(event1, k -> new AdjacencyBuilder()).add(event2, score);
+        }));
+        return builders;
+    }
+
+    @Override
+    public List<Neighbour> getNeighbours(long eventId, int limit) {
+        Adjacency neighbours = adjacency.get(eventId);
+        if (neighbours == null) {
+            return List.of();
+        }
+        int size = limit > 0 ? Math.min(limit, neighbours.ids.length) : neighbours.ids.length;
+        List<Neighbour> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new Neighbour(neighbours.ids[i], neighbours.scores[i]));
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<Neighbour> iterateNeighbours(long eventId) {
+        Adjacency neighbours = adjacency.get(eventId);
+        if (neighbours == null) {
+            return Collections.emptyIterator();
+        }
+        return new Iterator<>() {
+            private int position;
+
+            @Override
+            public boolean hasNext() {
+                return position < neighbours.ids.length;
+            }
+
+            @Override
+            public Neighbour next() {
+                if (position >= neighbours.ids.length) {
+                    throw new NoSuchElementException();
+                }
+                Neighbour neighbour = new Neighbour(neighbours.ids[position], neighbours.scores[position]);
+                position++;
+                return neighbour;
+            }
+        };
+    }
+
+    @Override
+    public void forEachNeighbour(long eventId, int limit, NeighbourVisitor visitor) {
+        Adjacency neighbours = adjacency.get(eventId);
+        if (neighbours == null) {
+            return;
+        }
+        int size = limit > 0 ? Math.min(limit, neighbours.ids.length) : neighbours.ids.length;
+        for (int i = 0; i < size; i++) {
+            if (!visitor.visit(neighbours.ids[i], neighbours.scores[i])) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void update(Collection<EventSimilarityAvro> similarities) {
+        for (EventSimilarityAvro similarity : similarities) {
+            float score = (float) similarity.getScore();
+            if (score <= 0) {
+                adjacency.computeIfPresent(similarity.getEventA(), (k, current) -> remove(current, similarity.getEventB()));
+                adjacency.computeIfPresent(similarity.getEventB(), (k, current) -> remove(current, similarity.getEventA()));
+                continue;
+            }
+            adjacency.compute(similarity.getEventA(), (k, current) -> upsert(current, similarity.getEventB(), score));
+            adjacency.compute(similarity.getEventB(), (k, current) -> upsert(current, similarity.getEventA(), score));
+        }
+    }
+
+    private Adjacency upsert(Adjacency current, long neighbour, float score) {
+        if (current == null) {
+            return new Adjacency(new long[]{neighbour}, new float[]{score});
+        }
+        long[] ids = current.ids;
+        float[] scores = current.scores;
+        int n = ids.length;
+
+        int existing = -1;
+        for (int i = 0; i < n; i++) {
+            if (ids[i] == neighbour) {
+                existing = i;
+                break;
+            }
+        }
+        int size = existing >= 0 ? n : n + 1;
+        if (existing < 0 && maxNeighbours > 0 && n >= maxNeighbours) {
+            if (score <= scores[n - 1]) {
+                return current;
+            }
+            size = n;
+        }
+
+        long[] newIds = new long[size];
+        float[] newScores = new float[size];
+        int j = 0;
+        boolean placed = false;
+        for (int i = 0; i < n && j < size; i++) {
+            if (i == existing) {
+                continue;
+            }
+            if (!placed && score > scores[i]) {
+                newIds[j] = neighbour;
+                newScores[j++] = score;
+                placed = true;
+                if (j == size) {
+                    break;
+                }
+            }
+            newIds[j] = ids[i];
+            newScores[j++] = scores[i];
+        }
+        if (!placed) {
+            newIds[j] = neighbour;
+            newScores[j] = score;
+        }
+        return new Adjacency(newIds, newScores);
+    }
+
+    /**
+     * @return соседи без указанного или null, если соседей не осталось
+     */
+    private Adjacency remove(Adjacency current, long neighbour) {
+        long[] ids = current.ids;
+        int existing = -1;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == neighbour) {
+                existing = i;
+                break;
+            }
+        }
+        if (existing < 0) {
+            return current;
+        }
+        if (ids.length == 1) {
+            return null;
+        }
+        long[] newIds = new long[ids.length - 1];
+        float[] newScores = new float[ids.length - 1];
+        System.arraycopy(ids, 0, newIds, 0, existing);
+        System.arraycopy(current.scores, 0, newScores, 0, existing);
+        System.arraycopy(ids, existing + 1, newIds, existing, ids.length - existing - 1);
+        System.arraycopy(current.scores, existing + 1, newScores, existing, ids.length - existing - 1);
+        return new Adjacency(newIds, newScores);
+    }
+
+    private record Adjacency(long[] ids, float[] scores) {
+    }
+
+    private static final class AdjacencyBuilder {
+        private long[] ids = new long[4];
+        private float[] scores = new float[4];
+        private int size;
+
+        void add(long id, float score) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size + (size >> 1));
+                scores = Arrays.copyOf(scores, ids.length);
+            }
+            ids[size] = id;
+            scores[size++] = score;
+        }
+
+        AdjacencyBuilder addAll(AdjacencyBuilder other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.ids[i], other.scores[i]);
+            }
+            return this;
+        }
+
+        Adjacency build(int limit) {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+            int length = limit > 0 ? Math.min(limit, size) : size;
+            long[] sortedIds = new long[length];
+            float[] sortedScores = new float[length];
+            for (int i = 0; i < length; i++) {
+                sortedIds[i] = ids[order[i]];
+                sortedScores[i] = scores[order[i]];
+            }
+            return new Adjacency(sortedIds, sortedScores);
+        }
+    }
+}
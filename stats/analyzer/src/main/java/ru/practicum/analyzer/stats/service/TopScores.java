@@ -0,0 +1,131 @@
+package ru.practicum.analyzer.stats.service;
+
+import ru.practicum.stats.proto.RecommendedEventProto;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Ограниченная куча лучших по оценке событий. Пока идёт отбор, это min-куча: в корне худший
+ * из оставленных. Результат выдаётся по одному из max-кучи, в которую массивы перестраиваются на месте.
+ * Массивы растут по мере добавления, поэтому большой limit не означает большой аллокации.
+ */
+final class TopScores {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int limit;
+    private long[] ids;
+    private double[] scores;
+    private int size;
+    private boolean draining;
+
+    TopScores(int limit) {
+        this.limit = limit;
+        int capacity = Math.min(limit, INITIAL_CAPACITY);
+        ids = new long[capacity];
+        scores = new double[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long idAt(int index) {
+        return ids[index];
+    }
+
+    void offer(long id, double score) {
+        if (draining) {
+            throw new IllegalStateException("Отбор уже завершён");
+        }
+        if (size < limit) {
+            if (size == ids.length) {
+                int capacity = (int) Math.min(limit, Math.max(INITIAL_CAPACITY, ids.length * 2L));
+                ids = Arrays.copyOf(ids, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+            }
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (size > 0 && score > scores[0]) {
+            ids[0] = id;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Завершает отбор и выдаёт события по убыванию оценки; каждый шаг — одно извлечение из кучи.
+     */
+    Iterator<RecommendedEventProto> drainDescending() {
+        draining = true;
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return size > 0;
+            }
+
+            @Override
+            public RecommendedEventProto next() {
+                if (size == 0) {
+                    throw new NoSuchElementException();
+                }
+                RecommendedEventProto event = RecommendedEventProto.newBuilder()
+                        .setEventId(ids[0])
+                        .setScore(scores[0])
+                        .build();
+                size--;
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown(0);
+                return event;
+            }
+        };
+    }
+
+    /**
+     * В режиме отбора — true, если a должен быть ближе к корню min-кучи, при выдаче — max-кучи.
+     */
+    private boolean above(int a, int b) {
+        return draining ? scores[a] > scores[b] : scores[a] < scores[b];
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!above(index, parent)) {
+                return;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = index * 2 + 1;
+            if (left >= size) {
+                return;
+            }
+            int top = left + 1 < size && above(left + 1, left) ? left + 1 : left;
+            if (!above(top, index)) {
+                return;
+            }
+            swap(index, top);
+            index = top;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
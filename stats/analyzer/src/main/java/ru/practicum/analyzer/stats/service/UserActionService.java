@@ -2,11 +2,12 @@ package ru.practicum.analyzer.stats.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.analyzer.stats.model.EventInteractionTotal;
 import ru.practicum.analyzer.stats.model.UserAction;
+import ru.practicum.analyzer.stats.model.UserRatings;
+import ru.practicum.analyzer.stats.repository.EventInteractionTotalRepository;
 import ru.practicum.analyzer.stats.repository.UserActionRepository;
 import ru.practicum.stats.avro.ActionTypeAvro;
 import ru.practicum.stats.avro.UserActionAvro;
@@ -21,31 +22,42 @@ import java.util.*;
 public class UserActionService {
 
     private final UserActionRepository repository;
+    private final EventInteractionTotalRepository totalRepository;
 
     @Transactional
     public void addAction(UserActionAvro value) {
-        Optional<UserAction> oldActionOpt = repository.findByUserIdAndEventId(value.getUserId(), value.getEventId());
-        if (oldActionOpt.isEmpty()) {
-            UserAction action = UserAction.builder()
-                    .userId(value.getUserId())
-                    .eventId(value.getEventId())
-                    .rating(getRatingByActionType(value.getActionType()))
-                    .timestamp(LocalDateTime.ofInstant(value.getTimestamp(), ZoneId.systemDefault()))
-                    .build();
-            repository.save(action);
-        } else {
-            UserAction oldAction = oldActionOpt.get();
-            double oldRating = oldAction.getRating();
-            double newRating = getRatingByActionType(value.getActionType());
-            if (newRating >= oldRating) {
-                oldAction.setRating(newRating);
-                LocalDateTime oldTimestamp = oldAction.getTimestamp();
-                if (oldTimestamp == null || oldTimestamp.isBefore(LocalDateTime.ofInstant(value.getTimestamp(), ZoneId.systemDefault()))) {
-                    oldAction.setTimestamp(LocalDateTime.ofInstant(value.getTimestamp(), ZoneId.systemDefault()));
+        addActions(List.of(value));
+    }
+
+    /**
+     * Сохраняет пачку действий одним запросом. Действия одного пользователя с одним событием
+     * схлопываются до максимальной оценки и самого позднего времени.
+     */
+    @Transactional
+    public void addActions(Collection<UserActionAvro> values) {
+        Map<UserEvent, UserAction> folded = new LinkedHashMap<>();
+        for (UserActionAvro value : values) {
+            double rating = getRatingByActionType(value.getActionType());
+            LocalDateTime timestamp = LocalDateTime.ofInstant(value.getTimestamp(), ZoneId.systemDefault());
+            UserEvent key = new UserEvent(value.getUserId(), value.getEventId());
+            UserAction action = folded.get(key);
+            if (action == null) {
+                folded.put(key, UserAction.builder()
+                        .userId(value.getUserId())
+                        .eventId(value.getEventId())
+                        .rating(rating)
+                        .timestamp(timestamp)
+                        .build());
+            } else {
+                action.setRating(Math.max(action.getRating(), rating));
+                if (action.getTimestamp().isBefore(timestamp)) {
+                    action.setTimestamp(timestamp);
                 }
-                repository.save(oldAction);
             }
         }
+        int updated = repository.upsertAll(folded.values());
+        log.debug("Сохранено действий пользователей: получено {}, уникальных пар {}, записано {}",
+                values.size(), folded.size(), updated);
     }
 
     private double getRatingByActionType(ActionTypeAvro actionType) {
@@ -57,24 +69,23 @@ public class UserActionService {
     }
 
     @Transactional(readOnly = true)
-    public Set<Long> findByUserIdOrderByTimestampDesc(long userId, int maxResult) {
-        Pageable pageable = PageRequest.of(0, maxResult);
-        List<Long> eventIds = repository.findDistinctEventIdByUserIdOrderByTimestampDesc(userId, pageable);
-
-        return new HashSet<>(eventIds);
+    public UserRatings findRatings(long userId) {
+        return repository.findRatingsByUserId(userId);
     }
 
     @Transactional(readOnly = true)
-    public Set<Long> findAllByUserIdAndEventIdIn(long userId, Set<Long> eventIds) {
-        List<Long> result = repository.findDistinctEventIdByUserIdAndEventIdIn(userId, eventIds);
-        return new HashSet<>(result);
+    public Map<Long, UserRatings> findRatings(Collection<Long> userIds) {
+        return repository.findRatingsByUserIds(userIds);
     }
 
     @Transactional(readOnly = true)
-    public List<UserAction> findAllByEventIds(Set<Long> eventIds) {
+    public List<EventInteractionTotal> findInteractionTotals(Set<Long> eventIds) {
         if (eventIds == null || eventIds.isEmpty()) {
-            return java.util.Collections.emptyList();
+            return Collections.emptyList();
         }
-        return repository.findAllByEventIdIn(eventIds).stream().toList();
+        return totalRepository.findAllById(eventIds);
+    }
+
+    private record UserEvent(long userId, long eventId) {
     }
 }
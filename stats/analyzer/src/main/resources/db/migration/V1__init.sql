@@ -0,0 +1,19 @@
+CREATE TABLE IF NOT EXISTS similarities
+(
+    id         BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    event1     BIGINT           NOT NULL,
+    event2     BIGINT           NOT NULL,
+    similarity DOUBLE PRECISION NOT NULL,
+    ts         TIMESTAMP(6)     NOT NULL,
+    CONSTRAINT uk_similarities_event1_event2 UNIQUE (event1, event2)
+);
+
+CREATE TABLE IF NOT EXISTS interactions
+(
+    id       BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id  BIGINT           NOT NULL,
+    event_id BIGINT           NOT NULL,
+    rating   DOUBLE PRECISION NOT NULL,
+    ts       TIMESTAMP(6)     NOT NULL,
+    CONSTRAINT uk_interactions_user_id_event_id UNIQUE (user_id, event_id)
+);
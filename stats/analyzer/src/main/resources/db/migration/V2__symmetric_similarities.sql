@@ -0,0 +1,8 @@
+-- Каждая пара хранится в обоих направлениях: соседи события — строки с event1 = событие,
+-- и выборка лучших соседей идёт по диапазону индекса (event1, similarity DESC) с LIMIT.
+INSERT INTO similarities (event1, event2, similarity, ts)
+SELECT event2, event1, similarity, ts
+FROM similarities
+ON CONFLICT (event1, event2) DO NOTHING;
+
+CREATE INDEX IF NOT EXISTS ix_similarities_event1_similarity ON similarities (event1, similarity DESC);
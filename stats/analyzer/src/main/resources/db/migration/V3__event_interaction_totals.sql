@@ -0,0 +1,15 @@
+-- Сумма оценок и количество взаимодействий по событию, поддерживаются upsert-ом взаимодействий.
+CREATE TABLE IF NOT EXISTS event_interaction_totals
+(
+    event_id     BIGINT PRIMARY KEY,
+    rating_sum   DOUBLE PRECISION NOT NULL,
+    interactions BIGINT           NOT NULL
+);
+
+INSERT INTO event_interaction_totals (event_id, rating_sum, interactions)
+SELECT event_id, sum(rating), count(*)
+FROM interactions
+GROUP BY event_id
+ON CONFLICT (event_id) DO UPDATE
+    SET rating_sum   = EXCLUDED.rating_sum,
+        interactions = EXCLUDED.interactions;
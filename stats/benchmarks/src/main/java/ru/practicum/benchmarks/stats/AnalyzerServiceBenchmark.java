@@ -0,0 +1,157 @@
+package ru.practicum.benchmarks.stats;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.practicum.analyzer.stats.model.UserAction;
+import ru.practicum.analyzer.stats.service.AnalyzerService;
+import ru.practicum.analyzer.stats.service.GraphProperties;
+import ru.practicum.analyzer.stats.service.RecommendationCache;
+import ru.practicum.analyzer.stats.service.RecommendationEngine;
+import ru.practicum.analyzer.stats.service.RecommendationProperties;
+import ru.practicum.analyzer.stats.service.SimilarityGraph;
+import ru.practicum.analyzer.stats.service.UserActionService;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.proto.InteractionsCountRequestProto;
+import ru.practicum.stats.proto.SimilarEventsRequestProto;
+import ru.practicum.stats.proto.UserPredictionsRequestProto;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ранжирование рекомендаций анализатора на данных в памяти.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AnalyzerServiceBenchmark {
+
+    private static final int REQUESTS = 1 << 10;
+
+    @Param({"10000"})
+    private int users;
+
+    @Param({"2000"})
+    private int events;
+
+    @Param({"200000"})
+    private int interactions;
+
+    @Param({"50"})
+    private int neighboursPerEvent;
+
+    @Param({"10"})
+    private int maxResults;
+
+    @Param({"0"})
+    private int cacheEntries;
+
+    private AnalyzerService analyzerService;
+    private UserPredictionsRequestProto[] predictionRequests;
+    private SimilarEventsRequestProto[] similarRequests;
+    private InteractionsCountRequestProto[] countRequests;
+    private int position;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        ZipfSampler userSampler = new ZipfSampler(users, 1.1, 42);
+        ZipfSampler eventSampler = new ZipfSampler(events, 1.1, 4242);
+        SplittableRandom random = new SplittableRandom(7);
+        LocalDateTime start = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+        List<UserAction> actions = new ArrayList<>(interactions);
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < interactions; i++) {
+            long userId = userSampler.next();
+            long eventId = eventSampler.next();
+            if (seen.add(userId << 32 | eventId)) {
+                actions.add(UserAction.builder()
+                        .userId(userId)
+                        .eventId(eventId)
+                        .rating(new double[]{0.4, 0.8, 1.0}[random.nextInt(3)])
+                        .timestamp(start.plusSeconds(i))
+                        .build());
+            }
+        }
+
+        List<EventSimilarityAvro> similarities = new ArrayList<>();
+        for (long eventA = 1; eventA <= events; eventA++) {
+            for (int j = 0; j < neighboursPerEvent; j++) {
+                long eventB = eventSampler.next();
+                if (eventB > eventA) {
+                    similarities.add(EventSimilarityAvro.newBuilder()
+                            .setEventA(eventA)
+                            .setEventB(eventB)
+                            .setScore(random.nextDouble())
+                            .setTimestamp(Instant.EPOCH)
+                            .build());
+                }
+            }
+        }
+        SimilarityGraph graph = new SimilarityGraph(null, null, new GraphProperties());
+        graph.update(similarities);
+
+        RecommendationProperties recommendationProperties = new RecommendationProperties();
+        recommendationProperties.setCacheMaxEntries(cacheEntries);
+        analyzerService = new AnalyzerService(
+                new UserActionService(InMemoryRepositories.userActions(actions),
+                        InMemoryRepositories.interactionTotals(actions)),
+                graph,
+                new RecommendationEngine(graph, recommendationProperties),
+                new RecommendationCache(recommendationProperties, new SimpleMeterRegistry()));
+
+        predictionRequests = new UserPredictionsRequestProto[REQUESTS];
+        similarRequests = new SimilarEventsRequestProto[REQUESTS];
+        countRequests = new InteractionsCountRequestProto[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            long userId = userSampler.next();
+            predictionRequests[i] = UserPredictionsRequestProto.newBuilder()
+                    .setUserId(userId)
+                    .setMaxResults(maxResults)
+                    .build();
+            similarRequests[i] = SimilarEventsRequestProto.newBuilder()
+                    .setEventId(eventSampler.next())
+                    .setUserId(userId)
+                    .setMaxResults(maxResults)
+                    .build();
+            InteractionsCountRequestProto.Builder countRequest = InteractionsCountRequestProto.newBuilder();
+            for (int j = 0; j < maxResults; j++) {
+                countRequest.addEventId(eventSampler.next());
+            }
+            countRequests[i] = countRequest.build();
+        }
+    }
+
+    private static void drain(Iterator<?> results, Blackhole blackhole) {
+        while (results.hasNext()) {
+            blackhole.consume(results.next());
+        }
+    }
+
+    private int next() {
+        int current = position;
+        position = (position + 1) & (REQUESTS - 1);
+        return current;
+    }
+
+    @Benchmark
+    public void recommendationsForUser(Blackhole blackhole) {
+        drain(analyzerService.getRecommendationsForUser(predictionRequests[next()]), blackhole);
+    }
+
+    @Benchmark
+    public void similarEvents(Blackhole blackhole) {
+        drain(analyzerService.getSimilarEvents(similarRequests[next()]), blackhole);
+    }
+
+    @Benchmark
+    public void interactionsCount(Blackhole blackhole) {
+        blackhole.consume(analyzerService.getInteractionsCount(countRequests[next()]));
+    }
+}
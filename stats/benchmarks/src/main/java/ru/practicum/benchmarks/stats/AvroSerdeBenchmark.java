@@ -0,0 +1,57 @@
+package ru.practicum.benchmarks.stats;
+
+import org.openjdk.jmh.annotations.*;
+import ru.practicum.stats.avro.ActionTypeAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+import ru.practicum.stats.avro.serde.AvroSerializer;
+import ru.practicum.stats.avro.serde.UserActionDeserializer;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сериализация и десериализация действия пользователя в формате Avro.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AvroSerdeBenchmark {
+
+    private static final String TOPIC = "stats.user-actions.v1";
+
+    private AvroSerializer serializer;
+    private UserActionDeserializer deserializer;
+    private UserActionAvro action;
+    private byte[] payload;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        serializer = new AvroSerializer();
+        deserializer = new UserActionDeserializer();
+        action = UserActionAvro.newBuilder()
+                .setUserId(123_456L)
+                .setEventId(789_012L)
+                .setActionType(ActionTypeAvro.REGISTER)
+                .setTimestamp(Instant.parse("2024-01-01T00:00:00Z"))
+                .build();
+        payload = serializer.serialize(TOPIC, action);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(TOPIC, action);
+    }
+
+    @Benchmark
+    public UserActionAvro deserialize() {
+        return deserializer.deserialize(TOPIC, payload);
+    }
+
+    @Benchmark
+    public UserActionAvro roundTrip() {
+        return deserializer.deserialize(TOPIC, serializer.serialize(TOPIC, action));
+    }
+}
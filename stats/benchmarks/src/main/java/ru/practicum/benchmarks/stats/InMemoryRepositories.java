@@ -0,0 +1,85 @@
+package ru.practicum.benchmarks.stats;
+
+import ru.practicum.analyzer.stats.model.EventInteractionTotal;
+import ru.practicum.analyzer.stats.model.UserAction;
+import ru.practicum.analyzer.stats.model.UserRatings;
+import ru.practicum.analyzer.stats.repository.EventInteractionTotalRepository;
+import ru.practicum.analyzer.stats.repository.UserActionRepository;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+/**
+ * Репозитории анализатора поверх коллекций в памяти: реализуют только методы, которые вызывает
+ * AnalyzerService, чтобы в замер попадала логика ранжирования, а не база данных.
+ */
+final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    static UserActionRepository userActions(List<UserAction> actions) {
+        Map<Long, List<UserAction>> byUser = new HashMap<>();
+        for (UserAction action : actions) {
+            byUser.computeIfAbsent(action.getUserId(), k -> new ArrayList<>()).add(action);
+        }
+        byUser.values().forEach(list -> list.sort(Comparator.comparing(UserAction::getTimestamp).reversed()));
+
+        return proxy(UserActionRepository.class, (name, args) -> switch (name) {
+            case "findRatingsByUserId" -> {
+                List<UserAction> history = byUser.getOrDefault((Long) args[0], List.of());
+                long[] eventIds = new long[history.size()];
+                double[] ratings = new double[history.size()];
+                for (int i = 0; i < history.size(); i++) {
+                    eventIds[i] = history.get(i).getEventId();
+                    ratings[i] = history.get(i).getRating();
+                }
+                yield new UserRatings(eventIds, ratings);
+            }
+            default -> throw new UnsupportedOperationException(name);
+        });
+    }
+
+    static EventInteractionTotalRepository interactionTotals(List<UserAction> actions) {
+        Map<Long, EventInteractionTotal> totals = new HashMap<>();
+        for (UserAction action : actions) {
+            EventInteractionTotal total = totals.computeIfAbsent(action.getEventId(),
+                    id -> new EventInteractionTotal(id, 0.0, 0L));
+            total.setRatingSum(total.getRatingSum() + action.getRating());
+            total.setInteractions(total.getInteractions() + 1);
+        }
+
+        return proxy(EventInteractionTotalRepository.class, (name, args) -> switch (name) {
+            case "findAllById" -> {
+                List<EventInteractionTotal> result = new ArrayList<>();
+                for (Object id : (Iterable<?>) args[0]) {
+                    EventInteractionTotal total = totals.get((Long) id);
+                    if (total != null) {
+                        result.add(total);
+                    }
+                }
+                yield result;
+            }
+            default -> throw new UnsupportedOperationException(name);
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return switch (method.getName()) {
+                            case "hashCode" -> System.identityHashCode(proxy);
+                            case "equals" -> proxy == args[0];
+                            default -> type.getSimpleName();
+                        };
+                    }
+                    return handler.invoke(method.getName(), args);
+                }));
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Object invoke(String name, Object[] args);
+    }
+}
@@ -0,0 +1,99 @@
+package ru.practicum.benchmarks.stats;
+
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.LongSerializer;
+import org.openjdk.jmh.annotations.*;
+import ru.practicum.stats.avro.ActionTypeAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+import ru.practicum.stats.avro.serde.AvroSerializer;
+import ru.practicum.stats.kafka.ProducerProfile;
+
+import java.time.Instant;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отправка действий пользователей во встроенный брокер с разными профилями продюсера.
+ * Каждый поток отправляет пачку записей и ждёт подтверждения всех, так что в результат
+ * входит и ожидание батча (linger), и подтверждение брокером.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class ProducerProfileBenchmark {
+
+    private static final String TOPIC = "stats.user-actions.v1";
+    private static final int BATCH = 10_000;
+    private static final int ACTIONS = 1 << 16;
+
+    @Param({"LATENCY", "THROUGHPUT", "DURABLE"})
+    private ProducerProfile profile;
+
+    @Param({"8"})
+    private int partitions;
+
+    private EmbeddedKafkaBroker broker;
+    private KafkaProducer<Long, SpecificRecordBase> producer;
+    private UserActionAvro[] actions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        broker = new EmbeddedKafkaBroker();
+        broker.createTopic(TOPIC, partitions);
+
+        Properties properties = profile.properties();
+        properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.bootstrapServers());
+        properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, LongSerializer.class.getName());
+        properties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, AvroSerializer.class.getName());
+        producer = new KafkaProducer<>(properties);
+
+        SplittableRandom random = new SplittableRandom(42);
+        ActionTypeAvro[] types = ActionTypeAvro.values();
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+        actions = new UserActionAvro[ACTIONS];
+        for (int i = 0; i < ACTIONS; i++) {
+            actions[i] = UserActionAvro.newBuilder()
+                    .setUserId(random.nextInt(100_000))
+                    .setEventId(random.nextInt(10_000))
+                    .setActionType(types[random.nextInt(types.length)])
+                    .setTimestamp(start.plusMillis(i))
+                    .build();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        producer.close();
+        broker.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Sender {
+        @SuppressWarnings("unchecked")
+        private final Future<RecordMetadata>[] sent = new Future[BATCH];
+        private int position;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void send(Sender sender) throws Exception {
+        Future<RecordMetadata>[] sent = sender.sent;
+        for (int i = 0; i < BATCH; i++) {
+            UserActionAvro action = actions[sender.position++ & (ACTIONS - 1)];
+            sent[i] = producer.send(new ProducerRecord<>(TOPIC, action.getUserId(), action));
+        }
+        for (Future<RecordMetadata> future : sent) {
+            future.get();
+        }
+    }
+}
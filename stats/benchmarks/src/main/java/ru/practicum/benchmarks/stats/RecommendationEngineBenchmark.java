@@ -0,0 +1,88 @@
+package ru.practicum.benchmarks.stats;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.practicum.analyzer.stats.model.UserRatings;
+import ru.practicum.analyzer.stats.service.GraphProperties;
+import ru.practicum.analyzer.stats.service.RecommendationEngine;
+import ru.practicum.analyzer.stats.service.RecommendationProperties;
+import ru.practicum.analyzer.stats.service.SimilarityGraph;
+import ru.practicum.stats.avro.EventSimilarityAvro;
+import ru.practicum.stats.proto.RecommendedEventProto;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Оценка рекомендаций для пользователя с длинной историей на графе схожести в памяти.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RecommendationEngineBenchmark {
+
+    @Param({"20000"})
+    private int events;
+
+    @Param({"200"})
+    private int neighboursPerEvent;
+
+    @Param({"1000"})
+    private int historySize;
+
+    @Param({"10"})
+    private int maxResults;
+
+    private RecommendationEngine engine;
+    private UserRatings history;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(7);
+        ZipfSampler eventSampler = new ZipfSampler(events, 1.1, 4242);
+        List<EventSimilarityAvro> similarities = new ArrayList<>();
+        for (long eventA = 1; eventA <= events; eventA++) {
+            for (int j = 0; j < neighboursPerEvent / 2; j++) {
+                long eventB = eventSampler.next();
+                if (eventB != eventA) {
+                    similarities.add(EventSimilarityAvro.newBuilder()
+                            .setEventA(eventA)
+                            .setEventB(eventB)
+                            .setScore(random.nextDouble())
+                            .setTimestamp(Instant.EPOCH)
+                            .build());
+                }
+            }
+        }
+        GraphProperties graphProperties = new GraphProperties();
+        graphProperties.setMaxNeighbours(neighboursPerEvent);
+        SimilarityGraph graph = new SimilarityGraph(null, null, graphProperties);
+        graph.update(similarities);
+        engine = new RecommendationEngine(graph, new RecommendationProperties());
+
+        Set<Long> seen = new LinkedHashSet<>();
+        while (seen.size() < historySize) {
+            seen.add(eventSampler.next());
+        }
+        long[] eventIds = new long[historySize];
+        double[] ratings = new double[historySize];
+        int i = 0;
+        for (long eventId : seen) {
+            eventIds[i] = eventId;
+            ratings[i++] = new double[]{0.4, 0.8, 1.0}[random.nextInt(3)];
+        }
+        history = new UserRatings(eventIds, ratings);
+    }
+
+    @Benchmark
+    public void recommend(Blackhole blackhole) {
+        Iterator<RecommendedEventProto> results = engine.recommend(history, maxResults);
+        while (results.hasNext()) {
+            blackhole.consume(results.next());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package ru.practicum.benchmarks.stats;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.practicum.aggregator.stats.service.*;
+import ru.practicum.stats.avro.ActionTypeAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пересчёт сходства событий на одно действие пользователя.
+ * Состояние предварительно прогревается, чтобы замер шёл на «установившемся» наборе пар.
+ * Повтор уже учтённого действия ничего не пересчитывает, поэтому на каждом круге поток
+ * действий переносится на новую когорту пользователей с теми же популярными событиями.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SimilarityServiceBenchmark {
+
+    private static final int ACTIONS = 1 << 16;
+    private static final ActionTypeAvro[] ACTION_TYPES = {
+            ActionTypeAvro.VIEW, ActionTypeAvro.VIEW, ActionTypeAvro.VIEW, ActionTypeAvro.VIEW,
+            ActionTypeAvro.VIEW, ActionTypeAvro.VIEW, ActionTypeAvro.REGISTER, ActionTypeAvro.REGISTER,
+            ActionTypeAvro.LIKE, ActionTypeAvro.LIKE
+    };
+
+    @Param({"10000"})
+    private int users;
+
+    @Param({"2000"})
+    private int events;
+
+    @Param({"1.1"})
+    private double skew;
+
+    @Param({"0"})
+    private int maxNeighbours;
+
+    private SimilarityService similarityService;
+    private UserActionAvro[] actions;
+    private int position;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SimilarityProperties properties = new SimilarityProperties();
+        properties.setMaxNeighbours(maxNeighbours);
+        properties.setRetention(Duration.ZERO);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+        SimilarityStateStore stateStore = new PrimitiveSimilarityStateStore();
+        SimilarityUpdateFilter updateFilter = new SimilarityUpdateFilter(properties, meterRegistry);
+        NeighbourPruner neighbourPruner = new NeighbourPruner(properties, stateStore, updateFilter, meterRegistry);
+        StateRetention retention = new StateRetention(stateStore, updateFilter, neighbourPruner, properties);
+        similarityService = new SimilarityServiceImpl(stateStore, retention, neighbourPruner, meterRegistry);
+
+        ZipfSampler userSampler = new ZipfSampler(users, skew, 42);
+        ZipfSampler eventSampler = new ZipfSampler(events, skew, 4242);
+        SplittableRandom random = new SplittableRandom(7);
+        Instant start = Instant.parse("2024-01-01T00:00:00Z");
+        actions = new UserActionAvro[ACTIONS];
+        for (int i = 0; i < ACTIONS; i++) {
+            actions[i] = UserActionAvro.newBuilder()
+                    .setUserId(userSampler.next())
+                    .setEventId(eventSampler.next())
+                    .setActionType(ACTION_TYPES[random.nextInt(ACTION_TYPES.length)])
+                    .setTimestamp(start.plusSeconds(i))
+                    .build();
+        }
+        for (UserActionAvro action : actions) {
+            similarityService.updateSimilarity(action);
+        }
+        nextCohort();
+    }
+
+    @Benchmark
+    public void updateSimilarity(Blackhole blackhole) {
+        UserActionAvro action = actions[position];
+        position = (position + 1) & (ACTIONS - 1);
+        if (position == 0) {
+            nextCohort();
+        }
+        blackhole.consume(similarityService.updateSimilarity(action));
+    }
+
+    private void nextCohort() {
+        for (UserActionAvro action : actions) {
+            action.setUserId(action.getUserId() + users);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package ru.practicum.benchmarks.stats;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Выборка идентификаторов 1..n по закону Ципфа: несколько «популярных» пользователей и событий
+ * получают большую часть действий, как в реальном трафике.
+ */
+final class ZipfSampler {
+
+    private final double[] cumulative;
+    private final SplittableRandom random;
+
+    ZipfSampler(int n, double exponent, long seed) {
+        this.cumulative = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1.0 / Math.pow(i + 1, exponent);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cumulative[i] /= sum;
+        }
+        this.random = new SplittableRandom(seed);
+    }
+
+    long next() {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble());
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return Math.min(index, cumulative.length - 1) + 1L;
+    }
+}
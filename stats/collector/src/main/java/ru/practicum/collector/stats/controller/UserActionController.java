@@ -7,16 +7,26 @@ import io.grpc.stub.StreamObserver;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import net.devh.boot.grpc.server.service.GrpcService;
+import ru.practicum.collector.stats.kafka.KafkaConfigProperties;
 import ru.practicum.collector.stats.service.UserActionService;
+import ru.practicum.stats.proto.UserActionAckProto;
+import ru.practicum.stats.proto.UserActionBatchProto;
 import ru.practicum.stats.proto.UserActionControllerGrpc;
 import ru.practicum.stats.proto.UserActionProto;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
 @Slf4j
 @RequiredArgsConstructor
 @GrpcService
 public class UserActionController extends UserActionControllerGrpc.UserActionControllerImplBase {
 
     private final UserActionService userActionService;
+    private final KafkaConfigProperties kafkaProperties;
 
     @Override
     public void collectUserAction(UserActionProto request, StreamObserver<Empty> responseObserver) {
@@ -25,6 +35,10 @@ public class UserActionController extends UserActionControllerGrpc.UserActionCon
             userActionService.collectUserAction(request);
             responseObserver.onNext(Empty.getDefaultInstance());
             responseObserver.onCompleted();
+        } catch (RejectedExecutionException e) {
+            log.warn("User action rejected: {}", e.getMessage());
+            responseObserver.onError(new StatusRuntimeException(
+                    Status.RESOURCE_EXHAUSTED.withDescription(e.getLocalizedMessage())));
         } catch (Exception e) {
             log.error("Error collecting user action, exception: {}", e.getMessage());
             responseObserver.onError(new StatusRuntimeException(
@@ -34,4 +48,80 @@ public class UserActionController extends UserActionControllerGrpc.UserActionCon
             ));
         }
     }
+
+    /**
+     * Поток действий от клиента: действия передаются продюсеру пачками по stream-chunk-size по мере
+     * поступления, подтверждение одно на весь поток — после того как брокер принял все пачки.
+     */
+    @Override
+    public StreamObserver<UserActionProto> collectUserActions(StreamObserver<UserActionAckProto> responseObserver) {
+        int chunkSize = Math.max(1, kafkaProperties.getStreamChunkSize());
+        return new StreamObserver<>() {
+            private List<UserActionProto> chunk = new ArrayList<>(chunkSize);
+            private CompletableFuture<Integer> accepted = CompletableFuture.completedFuture(0);
+            private boolean failed;
+
+            @Override
+            public void onNext(UserActionProto action) {
+                if (failed) {
+                    return;
+                }
+                chunk.add(action);
+                if (chunk.size() >= chunkSize) {
+                    flush();
+                }
+                if (accepted.isCompletedExceptionally()) {
+                    failed = true;
+                    acknowledge(accepted, responseObserver);
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                log.warn("Клиент прервал поток действий: {}", t.getMessage());
+            }
+
+            @Override
+            public void onCompleted() {
+                if (failed) {
+                    return;
+                }
+                flush();
+                acknowledge(accepted, responseObserver);
+            }
+
+            private void flush() {
+                if (chunk.isEmpty()) {
+                    return;
+                }
+                CompletableFuture<Integer> sent = userActionService.collectUserActions(chunk);
+                accepted = accepted.thenCombine(sent, Integer::sum);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        };
+    }
+
+    @Override
+    public void collectUserActionBatch(UserActionBatchProto request,
+                                       StreamObserver<UserActionAckProto> responseObserver) {
+        log.info("Collecting user action batch: {} actions", request.getActionsCount());
+        acknowledge(userActionService.collectUserActions(request.getActionsList()), responseObserver);
+    }
+
+    private void acknowledge(CompletableFuture<Integer> accepted, StreamObserver<UserActionAckProto> responseObserver) {
+        accepted.whenComplete((count, exception) -> {
+            if (exception != null) {
+                Throwable cause = exception instanceof CompletionException ? exception.getCause() : exception;
+                log.error("Error collecting user actions, exception: {}", cause.getMessage());
+                responseObserver.onError(new StatusRuntimeException(
+                        Status.INTERNAL
+                                .withDescription(cause.getLocalizedMessage())
+                                .withCause(cause)
+                ));
+            } else {
+                responseObserver.onNext(UserActionAckProto.newBuilder().setAccepted(count).build());
+                responseObserver.onCompleted();
+            }
+        });
+    }
 }
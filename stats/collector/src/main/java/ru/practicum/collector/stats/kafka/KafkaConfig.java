@@ -8,12 +8,14 @@ import org.apache.kafka.clients.producer.ProducerConfig;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.practicum.stats.kafka.ProducerProfile;
 
 import java.util.Properties;
 
 @Getter
 @Configuration
-@EnableConfigurationProperties({KafkaConfigProperties.class})
+@EnableConfigurationProperties({KafkaConfigProperties.class, SendQueueProperties.class, ViewDedupProperties.class,
+        SpoolProperties.class})
 public class KafkaConfig {
 
     private final KafkaConfigProperties kafkaProperties;
@@ -24,7 +26,8 @@ public class KafkaConfig {
 
     @Bean
     public Producer<Long, SpecificRecordBase> producer() {
-        Properties properties = new Properties();
+        Properties properties = ProducerProfile.apply(kafkaProperties.getProducerProfile(),
+                kafkaProperties.getProducerProps());
         properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaProperties.getBootstrapServers());
         properties.put(ProducerConfig.CLIENT_ID_CONFIG, kafkaProperties.getClientIdConfig());
         properties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, kafkaProperties.getProducerKeySerializer());
@@ -3,6 +3,9 @@ package ru.practicum.collector.stats.kafka;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import ru.practicum.stats.kafka.ProducerProfile;
+
+import java.util.Properties;
 
 @Getter
 @Setter
@@ -12,5 +15,8 @@ public class KafkaConfigProperties {
     private String clientIdConfig;
     private String producerKeySerializer;
     private String producerValueSerializer;
+    private ProducerProfile producerProfile;
+    private Properties producerProps;
     private String userActionTopic;
+    private int streamChunkSize = 500;
 }
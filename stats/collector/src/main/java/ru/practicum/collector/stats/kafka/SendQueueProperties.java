@@ -0,0 +1,15 @@
+package ru.practicum.collector.stats.kafka;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "collector.send-queue")
+public class SendQueueProperties {
+    private boolean enabled;
+    private int capacity = 100_000;
+    private double viewShedThreshold = 0.8;
+    private int senderThreads = 1;
+}
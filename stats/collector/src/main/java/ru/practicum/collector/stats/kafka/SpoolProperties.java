@@ -0,0 +1,22 @@
+package ru.practicum.collector.stats.kafka;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "collector.spool")
+public class SpoolProperties {
+    private boolean enabled;
+    private Path directory = Path.of("spool");
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+    private int maxSegments = 16;
+    private int replayRate = 1000;
+    private Duration retryBackoff = Duration.ofSeconds(5);
+    private Duration closeTimeout = Duration.ofSeconds(10);
+}
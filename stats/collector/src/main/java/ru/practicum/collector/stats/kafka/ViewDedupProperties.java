@@ -0,0 +1,17 @@
+package ru.practicum.collector.stats.kafka;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "collector.view-dedup")
+public class ViewDedupProperties {
+    private boolean enabled;
+    private Duration window = Duration.ofMinutes(10);
+    private int buckets = 4;
+    private int maxEntries = 1_000_000;
+}
@@ -0,0 +1,178 @@
+package ru.practicum.collector.stats.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.stereotype.Component;
+import ru.practicum.collector.stats.kafka.KafkaConfig;
+import ru.practicum.collector.stats.kafka.SendQueueProperties;
+import ru.practicum.stats.avro.ActionTypeAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ограниченная неблокирующая очередь действий перед продюсером. gRPC-поток только кладёт действие
+ * в очередь, а {@code producer.send}, который может ждать метаданных или места в буфере, вызывают
+ * отдельные потоки-отправители.
+ * <p>
+ * При заполнении очередь сбрасывает нагрузку по приоритету: VIEW перестают приниматься с
+ * view-shed-threshold от ёмкости, REGISTER и LIKE — только при полной очереди.
+ * При нескольких отправителях порядок действий одного пользователя не гарантируется.
+ */
+@Slf4j
+@Component
+public class UserActionSendQueue {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Producer<Long, SpecificRecordBase> producer;
+    private final UserActionSpool spool;
+    private final ViewDeduplicator viewDeduplicator;
+    private final String topic;
+    private final boolean enabled;
+    private final int capacity;
+    private final int viewLimit;
+    private final int senderThreads;
+    private final ConcurrentLinkedQueue<UserActionAvro> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final Map<ActionTypeAvro, Counter> dropped = new EnumMap<>(ActionTypeAvro.class);
+    private final Counter failed;
+    private final List<Thread> senders = new ArrayList<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean running;
+
+    public UserActionSendQueue(Producer<Long, SpecificRecordBase> producer, UserActionSpool spool,
+                               ViewDeduplicator viewDeduplicator, KafkaConfig kafkaConfig,
+                               SendQueueProperties properties, MeterRegistry meterRegistry) {
+        this.producer = producer;
+        this.spool = spool;
+        this.viewDeduplicator = viewDeduplicator;
+        this.topic = kafkaConfig.getKafkaProperties().getUserActionTopic();
+        this.enabled = properties.isEnabled();
+        this.capacity = properties.getCapacity();
+        this.viewLimit = (int) (properties.getCapacity() * properties.getViewShedThreshold());
+        this.senderThreads = Math.max(1, properties.getSenderThreads());
+        for (ActionTypeAvro type : ActionTypeAvro.values()) {
+            dropped.put(type, meterRegistry.counter("collector.send-queue.dropped", "action", type.name()));
+        }
+        this.failed = meterRegistry.counter("collector.send-queue.failed");
+        meterRegistry.gauge("collector.send-queue.depth", depth);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < senderThreads; i++) {
+            Thread sender = new Thread(this::drain);
+            sender.setName("UserActionSenderThread-" + i);
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+        log.info("Очередь отправки запущена: ёмкость {}, порог VIEW {}, отправителей {}",
+                capacity, viewLimit, senderThreads);
+    }
+
+    /**
+     * Кладёт действие в очередь без блокировки.
+     *
+     * @return false, если действие сброшено из-за заполненной очереди
+     */
+    public boolean offer(UserActionAvro action) {
+        ActionTypeAvro type = action.getActionType();
+        int limit = type == ActionTypeAvro.VIEW ? viewLimit : capacity;
+        int current;
+        do {
+            current = depth.get();
+            if (current >= limit) {
+                dropped.get(type).increment();
+                return false;
+            }
+        } while (!depth.compareAndSet(current, current + 1));
+        queue.offer(action);
+        return true;
+    }
+
+    public int depth() {
+        return depth.get();
+    }
+
+    private void drain() {
+        while (true) {
+            UserActionAvro action = queue.poll();
+            if (action == null) {
+                if (!running) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            depth.decrementAndGet();
+            send(action);
+        }
+    }
+
+    private void send(UserActionAvro action) {
+        try {
+            producer.send(new ProducerRecord<>(topic, null, action.getTimestamp().toEpochMilli(),
+                    action.getUserId(), action), (metadata, exception) -> {
+                if (exception != null) {
+                    failed.increment();
+                    log.error("Kafka: сообщение из очереди не отправлено, topic: {}", topic, exception);
+                    spoolOrForget(action);
+                }
+            });
+        } catch (Exception e) {
+            failed.increment();
+            log.error("Kafka: сообщение из очереди не отправлено, topic: {}", topic, e);
+            spoolOrForget(action);
+        }
+    }
+
+    private void spoolOrForget(UserActionAvro action) {
+        if (!spool.append(action)) {
+            viewDeduplicator.forget(action);
+        }
+    }
+
+    /**
+     * Останавливает отправителей, дождавшись, пока они передадут продюсеру всё, что успело попасть в очередь.
+     */
+    @PreDestroy
+    public void close() {
+        if (!closed.compareAndSet(false, true) || !enabled) {
+            return;
+        }
+        running = false;
+        for (Thread sender : senders) {
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        log.info("Очередь отправки остановлена, осталось в очереди: {}", depth.get());
+    }
+}
@@ -2,8 +2,18 @@ package ru.practicum.collector.stats.service;
 
 import ru.practicum.stats.proto.UserActionProto;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface UserActionService {
 
     void collectUserAction(UserActionProto userActionProto);
 
+    /**
+     * Передаёт пачку действий продюсеру разом.
+     *
+     * @return количество действий, завершается после подтверждения всей пачки брокером
+     */
+    CompletableFuture<Integer> collectUserActions(List<UserActionProto> userActionProtos);
+
 }
@@ -4,8 +4,11 @@ import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
 import org.springframework.stereotype.Service;
 import ru.practicum.collector.stats.kafka.KafkaConfig;
 import ru.practicum.stats.avro.ActionTypeAvro;
@@ -14,6 +17,13 @@ import ru.practicum.stats.proto.ActionTypeProto;
 import ru.practicum.stats.proto.UserActionProto;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @RequiredArgsConstructor
@@ -22,25 +32,133 @@ public class UserActionServiceImpl implements UserActionService {
 
     private final Producer<Long, SpecificRecordBase> producer;
     private final KafkaConfig kafkaConfig;
+    private final UserActionSendQueue sendQueue;
+    private final ViewDeduplicator viewDeduplicator;
+    private final UserActionSpool spool;
+    private final UserActionSpoolReplayer spoolReplayer;
 
     @Override
     public void collectUserAction(UserActionProto userActionProto) {
 
         log.info("UserActionService: обработка UserActionProto, eventId={}", userActionProto.getEventId());
 
+        UserActionAvro userActionAvro = toUserActionAvro(userActionProto);
+        if (viewDeduplicator.isRepeatedView(userActionAvro)) {
+            log.debug("UserActionService: повторный просмотр отброшен, userId={}, eventId={}",
+                    userActionAvro.getUserId(), userActionAvro.getEventId());
+            return;
+        }
+        if (sendQueue.isEnabled()) {
+            // Сброшенный VIEW подтверждается как принятый, отказ по REGISTER и LIKE клиент может повторить
+            if (!sendQueue.offer(userActionAvro)) {
+                viewDeduplicator.forget(userActionAvro);
+                if (userActionAvro.getActionType() != ActionTypeAvro.VIEW) {
+                    throw new RejectedExecutionException("Очередь отправки заполнена");
+                }
+            }
+            return;
+        }
+        send(kafkaConfig.getKafkaProperties().getUserActionTopic(),
+                userActionAvro.getUserId(),
+                userActionAvro.getTimestamp().toEpochMilli(),
+                userActionAvro);
+
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Если включена очередь отправки, возвращает число действий, принятых в очередь, сразу.
+     * Отброшенные повторные просмотры и действия, сохранённые в спул после ошибки отправки, считаются принятыми.
+     */
+    @Override
+    public CompletableFuture<Integer> collectUserActions(List<UserActionProto> userActionProtos) {
+        int size = userActionProtos.size();
+        List<UserActionAvro> userActionAvros = new ArrayList<>(size);
+        for (UserActionProto userActionProto : userActionProtos) {
+            UserActionAvro userActionAvro = toUserActionAvro(userActionProto);
+            if (!viewDeduplicator.isRepeatedView(userActionAvro)) {
+                userActionAvros.add(userActionAvro);
+            }
+        }
+        if (userActionAvros.isEmpty()) {
+            return CompletableFuture.completedFuture(size);
+        }
+        if (sendQueue.isEnabled()) {
+            int accepted = size - userActionAvros.size();
+            for (UserActionAvro userActionAvro : userActionAvros) {
+                if (sendQueue.offer(userActionAvro)) {
+                    accepted++;
+                } else {
+                    viewDeduplicator.forget(userActionAvro);
+                }
+            }
+            return CompletableFuture.completedFuture(accepted);
+        }
+        String topic = kafkaConfig.getKafkaProperties().getUserActionTopic();
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(userActionAvros.size());
+        // Если продюсер не принял запись сразу (например, не дождался метаданных за max.block.ms),
+        // остаток пачки не ждёт его по очереди, а сразу завершается той же ошибкой и уходит в спул
+        Exception sendFailure = null;
+        for (UserActionAvro userActionAvro : userActionAvros) {
+            Callback callback = (metadata, exception) -> {
+                if (exception != null && !spool.append(userActionAvro)) {
+                    viewDeduplicator.forget(userActionAvro);
+                    result.completeExceptionally(exception);
+                } else if (remaining.decrementAndGet() == 0) {
+                    result.complete(size);
+                }
+            };
+            if (sendFailure != null) {
+                callback.onCompletion(null, sendFailure);
+            } else {
+                try {
+                    Future<RecordMetadata> sent = producer.send(new ProducerRecord<>(topic, null,
+                            userActionAvro.getTimestamp().toEpochMilli(), userActionAvro.getUserId(), userActionAvro),
+                            callback);
+                    if (sent.isDone()) {
+                        sendFailure = failureOf(sent);
+                    }
+                } catch (Exception e) {
+                    callback.onCompletion(null, e);
+                    sendFailure = e;
+                }
+            }
+            if (result.isCompletedExceptionally()) {
+                break;
+            }
+        }
+        result.whenComplete((count, exception) -> {
+            if (exception != null) {
+                log.error("Kafka: пачка из {} действий не отправлена, topic: {}", size, topic, exception);
+            } else {
+                log.debug("Kafka: пачка из {} действий отправлена, topic: {}", size, topic);
+            }
+        });
+        return result;
+    }
+
+    private static Exception failureOf(Future<RecordMetadata> sent) {
+        try {
+            sent.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof Exception cause ? cause : e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+
+    private static UserActionAvro toUserActionAvro(UserActionProto userActionProto) {
         UserActionAvro userActionAvro = new UserActionAvro();
         userActionAvro.setUserId(userActionProto.getUserId());
         userActionAvro.setEventId(userActionProto.getEventId());
         userActionAvro.setActionType(toActionTypeAvro(userActionProto.getActionType()));
         userActionAvro.setTimestamp(Instant.ofEpochSecond(userActionProto.getTimestamp().getSeconds(),
                 userActionProto.getTimestamp().getNanos()));
-
-
-        send(kafkaConfig.getKafkaProperties().getUserActionTopic(),
-                userActionAvro.getEventId(),
-                userActionAvro.getTimestamp().toEpochMilli(),
-                userActionAvro);
-
+        return userActionAvro;
     }
 
     public static ActionTypeAvro toActionTypeAvro(ActionTypeProto actionTypeProto) {
@@ -52,28 +170,50 @@ public class UserActionServiceImpl implements UserActionService {
         };
     }
 
-    private void send(String topic, Long key, Long timestamp, SpecificRecordBase specificRecordBase) {
+    private void send(String topic, Long key, Long timestamp, UserActionAvro userActionAvro) {
         ProducerRecord<Long, SpecificRecordBase> rec = new ProducerRecord<>(
                 topic,
                 null,
                 timestamp,
                 key,
-                specificRecordBase);
-        producer.send(rec, (metadata, exception) -> {
-            if (exception != null) {
-                log.error("Kafka: сообщение не отправлено, topic: {}", topic, exception);
-            } else {
-                log.info("Kafka: сообщение отправлено, topic: {}, partition: {}, offset: {}",
-                        metadata.topic(), metadata.partition(), metadata.offset());
+                userActionAvro);
+        try {
+            producer.send(rec, (metadata, exception) -> {
+                if (exception != null) {
+                    log.error("Kafka: сообщение не отправлено, topic: {}", topic, exception);
+                    if (!spool.append(userActionAvro)) {
+                        viewDeduplicator.forget(userActionAvro);
+                    }
+                } else {
+                    log.info("Kafka: сообщение отправлено, topic: {}, partition: {}, offset: {}",
+                            metadata.topic(), metadata.partition(), metadata.offset());
+                }
+            });
+        } catch (KafkaException e) {
+            if (!spool.append(userActionAvro)) {
+                viewDeduplicator.forget(userActionAvro);
+                throw e;
             }
-        });
+            log.warn("Kafka: сообщение сохранено в спул, topic: {}: {}", topic, e.getMessage());
+        }
     }
 
+    /**
+     * При включённом спуле продюсер закрывается не дольше close-timeout: недоставленные к этому времени
+     * записи прерываются и через callback попадают в спул, а не теряются и не задерживают остановку.
+     */
     @PreDestroy
     private void close() {
+        sendQueue.close();
+        spoolReplayer.close();
         if (producer != null) {
-            producer.flush();
-            producer.close();
+            if (spool.isEnabled()) {
+                producer.close(spool.getCloseTimeout());
+            } else {
+                producer.flush();
+                producer.close();
+            }
         }
+        spool.close();
     }
 }
@@ -0,0 +1,397 @@
+package ru.practicum.collector.stats.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.collector.stats.kafka.KafkaConfig;
+import ru.practicum.collector.stats.kafka.SpoolProperties;
+import ru.practicum.stats.avro.UserActionAvro;
+import ru.practicum.stats.avro.serde.AvroSerializer;
+import ru.practicum.stats.avro.serde.UserActionDeserializer;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Локальный журнал действий, которые не удалось передать в Kafka. Действия в виде байтов Avro дописываются
+ * в сегменты на диске, отображённые в память, а {@link UserActionSpoolReplayer} отправляет их обратно в топик.
+ * <p>
+ * Запись сегмента — длина, CRC32C и байты действия. Нулевая длина означает конец записанного, отрицательная —
+ * что запись уже принята брокером, поэтому после перезапуска повторно отправляются только неподтверждённые
+ * записи. Запись с несошедшейся CRC (оборвана при падении процесса) считается концом сегмента.
+ * Сегмент заполняется до segment-size, затем открывается следующий; при max-segments сегментах новые
+ * записи отклоняются. Полностью воспроизведённые сегменты удаляются.
+ */
+@Slf4j
+@Component
+public class UserActionSpool {
+
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final int HEADER = 8;
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final String topic;
+    private final Duration closeTimeout;
+    private final AvroSerializer serializer = new AvroSerializer();
+    private final UserActionDeserializer deserializer = new UserActionDeserializer();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final AtomicLong pendingRecords = new AtomicLong();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicInteger segmentCount = new AtomicInteger();
+    private final Counter appended;
+    private final Counter rejected;
+    private final Counter replayed;
+    private final Counter discarded;
+    private final Counter rotations;
+    private long nextSequence;
+    private boolean full;
+    private boolean closed;
+
+    public UserActionSpool(SpoolProperties properties, KafkaConfig kafkaConfig, MeterRegistry meterRegistry)
+            throws IOException {
+        this.enabled = properties.isEnabled();
+        this.directory = properties.getDirectory();
+        this.segmentSize = (int) Math.min(Integer.MAX_VALUE, properties.getSegmentSize().toBytes());
+        this.maxSegments = Math.max(1, properties.getMaxSegments());
+        this.topic = kafkaConfig.getKafkaProperties().getUserActionTopic();
+        this.closeTimeout = properties.getCloseTimeout();
+        this.appended = meterRegistry.counter("collector.spool.records", "result", "appended");
+        this.rejected = meterRegistry.counter("collector.spool.records", "result", "rejected");
+        this.replayed = meterRegistry.counter("collector.spool.records", "result", "replayed");
+        this.discarded = meterRegistry.counter("collector.spool.records", "result", "discarded");
+        this.rotations = meterRegistry.counter("collector.spool.rotations");
+        meterRegistry.gauge("collector.spool.pending", pendingRecords);
+        meterRegistry.gauge("collector.spool.bytes", diskBytes);
+        meterRegistry.gauge("collector.spool.segments", segmentCount);
+        if (enabled) {
+            recover();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration getCloseTimeout() {
+        return closeTimeout;
+    }
+
+    public long pending() {
+        return pendingRecords.get();
+    }
+
+    /**
+     * Дописывает действие в журнал.
+     *
+     * @return false, если журнал выключен, закрыт или заполнен
+     */
+    public boolean append(UserActionAvro action) {
+        if (!enabled) {
+            return false;
+        }
+        byte[] payload = serializer.serialize(topic, action);
+        synchronized (this) {
+            if (closed || payload.length > segmentSize - HEADER) {
+                rejected.increment();
+                return false;
+            }
+            Segment segment = segments.peekLast();
+            if (segment == null || segment.sealed || !segment.fits(payload.length)) {
+                segment = rotate(segment);
+                if (segment == null) {
+                    rejected.increment();
+                    return false;
+                }
+            }
+            segment.write(payload);
+        }
+        appended.increment();
+        pendingRecords.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * До limit ещё не принятых брокером записей, начиная с самой старой. Позиция чтения сдвигается
+     * только в {@link #markReplayed}, так что до этого те же записи возвращаются повторно.
+     */
+    synchronized List<SpooledAction> peek(int limit) {
+        List<SpooledAction> result = new ArrayList<>(Math.min(limit, 1024));
+        for (Segment segment : segments) {
+            int position = segment.readPosition;
+            while (result.size() < limit && position < segment.writePosition) {
+                int length = segment.buffer.getInt(position);
+                if (length > 0) {
+                    byte[] payload = segment.payload(position, length);
+                    result.add(new SpooledAction(segment, position, deserializer.deserialize(topic, payload)));
+                }
+                position += HEADER + Math.abs(length);
+            }
+            if (result.size() >= limit) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Отмечает записи обработанными и удаляет сегменты, в которых не осталось неотправленных записей.
+     * Отметки попадают на диск при следующем {@link #sync()}.
+     *
+     * @param accepted   записи, принятые брокером
+     * @param discarded записи, которые брокер отверг окончательно
+     */
+    synchronized void markReplayed(List<SpooledAction> accepted, List<SpooledAction> discarded) {
+        if (closed) {
+            return;
+        }
+        this.replayed.increment(markDone(accepted));
+        this.discarded.increment(markDone(discarded));
+        for (Segment segment : segments) {
+            segment.advanceReadPosition();
+        }
+        removeReplayedSegments();
+    }
+
+    /**
+     * Сбрасывает на диск изменения сегментов: новые записи открытого сегмента и отметки
+     * об отправке в любом сегменте.
+     */
+    public synchronized void sync() {
+        if (closed) {
+            return;
+        }
+        for (Segment segment : segments) {
+            segment.force();
+        }
+    }
+
+    private int markDone(List<SpooledAction> actions) {
+        int marked = 0;
+        for (SpooledAction action : actions) {
+            Segment segment = action.segment();
+            int length = segment.buffer.getInt(action.position());
+            if (length > 0) {
+                segment.buffer.putInt(action.position(), -length);
+                segment.dirty = true;
+                pendingRecords.decrementAndGet();
+                marked++;
+            }
+        }
+        return marked;
+    }
+
+    private Segment rotate(Segment current) {
+        if (current != null && !current.sealed) {
+            current.seal();
+            removeReplayedSegments();
+        }
+        if (segments.size() >= maxSegments) {
+            if (!full) {
+                full = true;
+                log.warn("Спул заполнен: сегментов {}, записей к отправке {}, новые записи отклоняются",
+                        segments.size(), pendingRecords.get());
+            }
+            return null;
+        }
+        Path path = directory.resolve(String.format("%020d%s", nextSequence++, SEGMENT_SUFFIX));
+        try {
+            Segment segment = Segment.create(path, segmentSize);
+            segments.addLast(segment);
+            segmentCount.incrementAndGet();
+            diskBytes.addAndGet(segmentSize);
+            rotations.increment();
+            log.info("Спул: открыт сегмент {}, записей к отправке {}", path.getFileName(), pendingRecords.get());
+            return segment;
+        } catch (IOException e) {
+            log.error("Спул: не удалось создать сегмент {}", path, e);
+            return null;
+        }
+    }
+
+    private void removeReplayedSegments() {
+        while (!segments.isEmpty() && segments.peekFirst().sealed && segments.peekFirst().isReplayed()) {
+            Segment segment = segments.removeFirst();
+            segment.close();
+            segmentCount.decrementAndGet();
+            diskBytes.addAndGet(-segment.buffer.capacity());
+            full = false;
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.warn("Спул: не удалось удалить сегмент {}: {}", segment.path, e.getMessage());
+            }
+            log.info("Спул: сегмент {} воспроизведён и удалён, осталось записей {}",
+                    segment.path.getFileName(), pendingRecords.get());
+        }
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory)) {
+            paths = files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            long sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+            Segment segment = Segment.open(path);
+            segments.addLast(segment);
+            segmentCount.incrementAndGet();
+            diskBytes.addAndGet(segment.buffer.capacity());
+            pendingRecords.addAndGet(segment.pendingRecords());
+        }
+        removeReplayedSegments();
+        log.info("Спул {}: восстановлено сегментов {}, записей к отправке {}",
+                directory, segments.size(), pendingRecords.get());
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.force();
+            segment.close();
+        }
+        if (enabled) {
+            log.info("Спул закрыт, записей к отправке {}", pendingRecords.get());
+        }
+    }
+
+    /**
+     * Действие из журнала и его место в сегменте.
+     */
+    record SpooledAction(Segment segment, int position, UserActionAvro action) {
+    }
+
+    static final class Segment {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int readPosition;
+        private boolean sealed;
+        private boolean dirty;
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path path, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+
+        /**
+         * Открывает сегмент, оставшийся с прошлого запуска; новые записи в него не дописываются.
+         */
+        static Segment open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            Segment segment = new Segment(path, channel, buffer);
+            int position = 0;
+            while (position + HEADER <= segment.buffer.capacity()) {
+                int length = segment.buffer.getInt(position);
+                int size = Math.abs(length);
+                if (length == 0 || size > segment.buffer.capacity() - position - HEADER
+                        || length > 0 && segment.payload(position, length) == null) {
+                    break;
+                }
+                position += HEADER + size;
+            }
+            segment.writePosition = position;
+            segment.sealed = true;
+            segment.advanceReadPosition();
+            return segment;
+        }
+
+        boolean fits(int length) {
+            return writePosition + HEADER + length <= buffer.capacity();
+        }
+
+        void write(byte[] payload) {
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            buffer.put(writePosition + HEADER, payload);
+            buffer.putInt(writePosition + 4, (int) crc.getValue());
+            buffer.putInt(writePosition, payload.length);
+            writePosition += HEADER + payload.length;
+            dirty = true;
+        }
+
+        /**
+         * Байты записи или null, если CRC не сходится.
+         */
+        byte[] payload(int position, int length) {
+            byte[] payload = new byte[length];
+            buffer.get(position + HEADER, payload);
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            return (int) crc.getValue() == buffer.getInt(position + 4) ? payload : null;
+        }
+
+        long pendingRecords() {
+            long pending = 0;
+            for (int position = readPosition; position < writePosition; ) {
+                int length = buffer.getInt(position);
+                if (length > 0) {
+                    pending++;
+                }
+                position += HEADER + Math.abs(length);
+            }
+            return pending;
+        }
+
+        void advanceReadPosition() {
+            while (readPosition < writePosition && buffer.getInt(readPosition) < 0) {
+                readPosition += HEADER - buffer.getInt(readPosition);
+            }
+        }
+
+        boolean isReplayed() {
+            return readPosition >= writePosition;
+        }
+
+        void seal() {
+            force();
+            sealed = true;
+        }
+
+        void force() {
+            if (dirty) {
+                buffer.force();
+                dirty = false;
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Спул: ошибка закрытия сегмента {}: {}", path, e.getMessage());
+            }
+        }
+    }
+}
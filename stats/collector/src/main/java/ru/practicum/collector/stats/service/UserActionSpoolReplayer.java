@@ -0,0 +1,163 @@
+package ru.practicum.collector.stats.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.errors.RetriableException;
+import org.springframework.stereotype.Component;
+import ru.practicum.collector.stats.kafka.KafkaConfig;
+import ru.practicum.collector.stats.kafka.SpoolProperties;
+import ru.practicum.collector.stats.service.UserActionSpool.SpooledAction;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Фоновый поток, который возвращает действия из {@link UserActionSpool} в топик действий.
+ * Раз в такт отправляется не больше replay-rate / 10 записей и подтверждение ждётся до следующей пачки,
+ * так что накопившийся за время недоступности брокера хвост не заваливает агрегатор.
+ * Если брокер по-прежнему недоступен, попытка повторяется через retry-backoff.
+ * Запись, которую брокер отверг окончательно (не временной ошибкой), отбрасывается.
+ */
+@Slf4j
+@Component
+public class UserActionSpoolReplayer {
+
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final UserActionSpool spool;
+    private final Producer<Long, SpecificRecordBase> producer;
+    private final String topic;
+    private final int batchSize;
+    private final Duration retryBackoff;
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile boolean running;
+    private Thread thread;
+
+    public UserActionSpoolReplayer(UserActionSpool spool, Producer<Long, SpecificRecordBase> producer,
+                                   KafkaConfig kafkaConfig, SpoolProperties properties) {
+        this.spool = spool;
+        this.producer = producer;
+        this.topic = kafkaConfig.getKafkaProperties().getUserActionTopic();
+        this.batchSize = (int) Math.max(1, properties.getReplayRate() * TICK_NANOS / TimeUnit.SECONDS.toNanos(1));
+        this.retryBackoff = properties.getRetryBackoff();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!spool.isEnabled()) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run);
+        thread.setName("UserActionSpoolReplayerThread");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Воспроизведение спула запущено: до {} записей за такт", batchSize);
+    }
+
+    private void run() {
+        while (running) {
+            long tickEnd = System.nanoTime() + TICK_NANOS;
+            try {
+                spool.sync();
+                List<SpooledAction> batch = spool.peek(batchSize);
+                if (!batch.isEmpty() && !replay(batch)) {
+                    log.warn("Спул: брокер недоступен, записей к отправке {}, повтор через {}",
+                            spool.pending(), retryBackoff);
+                    Thread.sleep(retryBackoff.toMillis());
+                    continue;
+                }
+                long remaining = tickEnd - System.nanoTime();
+                if (remaining > 0) {
+                    TimeUnit.NANOSECONDS.sleep(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                log.error("Спул: ошибка воспроизведения", e);
+                try {
+                    Thread.sleep(retryBackoff.toMillis());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Отправляет пачку и ждёт подтверждений. Принятые и окончательно отвергнутые записи отмечаются в спуле
+     * только до первой временной ошибки: записи после неё, даже подтверждённые, отправляются повторно,
+     * чтобы действия уходили в порядке спула.
+     *
+     * @return false, если часть записей не отправлена из-за временной ошибки
+     */
+    private boolean replay(List<SpooledAction> batch) throws InterruptedException {
+        List<Future<RecordMetadata>> sent = new ArrayList<>(batch.size());
+        boolean available = true;
+        for (SpooledAction spooled : batch) {
+            UserActionAvro action = spooled.action();
+            Future<RecordMetadata> future;
+            try {
+                future = producer.send(new ProducerRecord<>(topic, null, action.getTimestamp().toEpochMilli(),
+                        action.getUserId(), action));
+            } catch (RetriableException e) {
+                available = false;
+                break;
+            }
+            sent.add(future);
+            // сразу завершённая отправка — ошибка продюсера (например, нет метаданных), остальные ждать не нужно
+            if (future.isDone()) {
+                break;
+            }
+        }
+        List<SpooledAction> accepted = new ArrayList<>(sent.size());
+        List<SpooledAction> discarded = new ArrayList<>();
+        for (int i = 0; i < sent.size(); i++) {
+            try {
+                sent.get(i).get();
+                accepted.add(batch.get(i));
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RetriableException) {
+                    available = false;
+                    break;
+                } else {
+                    log.error("Спул: запись отвергнута брокером и отброшена, topic: {}", topic, e.getCause());
+                    discarded.add(batch.get(i));
+                }
+            }
+        }
+        spool.markReplayed(accepted, discarded);
+        return available;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!closed.compareAndSet(false, true) || thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Воспроизведение спула остановлено, записей к отправке {}", spool.pending());
+    }
+}
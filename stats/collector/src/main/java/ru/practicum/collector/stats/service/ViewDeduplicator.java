@@ -0,0 +1,246 @@
+package ru.practicum.collector.stats.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import ru.practicum.collector.stats.kafka.ViewDedupProperties;
+import ru.practicum.stats.avro.ActionTypeAvro;
+import ru.practicum.stats.avro.UserActionAvro;
+
+import java.util.Arrays;
+
+/**
+ * Отбрасывает повторные просмотры события пользователем в пределах окна: ниже по потоку и агрегатор,
+ * и анализатор хранят только максимальный вес действия, так что повторный VIEW ничего не меняет.
+ * <p>
+ * Окно разбито на buckets интервалов, в каждом — множество 64-битных отпечатков пары
+ * (пользователь, событие) на примитивном массиве. Раз в интервал текущим становится самое старое
+ * множество, предварительно очищенное, поэтому просмотр отбрасывается, только если предыдущий был
+ * не раньше window назад. Память ограничена max-entries: переполненное множество сменяется досрочно,
+ * что лишь сокращает окно. Множества разнесены по полосам с отдельными блокировками.
+ * <p>
+ * Просмотр запоминается при приёме, до отправки. Если его затем сбросили или не смогли ни отправить,
+ * ни сохранить в спул, вызывающий убирает его через {@link #forget(UserActionAvro)}, чтобы повтор
+ * клиента не был отброшен как дубликат недоставленного просмотра.
+ */
+@Slf4j
+@Component
+public class ViewDeduplicator {
+
+    private static final int SHARDS = 16;
+
+    private final boolean enabled;
+    private final Shard[] shards;
+    private final Counter passed;
+    private final Counter suppressed;
+
+    public ViewDeduplicator(ViewDedupProperties properties, MeterRegistry meterRegistry) {
+        this.enabled = properties.isEnabled();
+        int buckets = Math.max(2, properties.getBuckets());
+        long spanNanos = Math.max(1, properties.getWindow().toNanos() / buckets);
+        int bucketEntries = Math.max(16, properties.getMaxEntries() / (SHARDS * buckets));
+        this.shards = new Shard[enabled ? SHARDS : 0];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(buckets, bucketEntries, spanNanos);
+        }
+        this.passed = meterRegistry.counter("collector.view-dedup.views", "result", "passed");
+        this.suppressed = meterRegistry.counter("collector.view-dedup.views", "result", "suppressed");
+        meterRegistry.gauge("collector.view-dedup.suppression-ratio", this, ViewDeduplicator::suppressionRatio);
+        meterRegistry.gauge("collector.view-dedup.size", this, ViewDeduplicator::size);
+        if (enabled) {
+            log.info("Дедупликация просмотров включена: окно {}, интервалов {}, записей в интервале полосы {}",
+                    properties.getWindow(), buckets, bucketEntries);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Проверяет, был ли такой же просмотр в пределах окна, и запоминает текущий.
+     *
+     * @return true, если действие — повторный VIEW и его можно не отправлять
+     */
+    public boolean isRepeatedView(UserActionAvro action) {
+        if (!enabled || action.getActionType() != ActionTypeAvro.VIEW) {
+            return false;
+        }
+        long fingerprint = fingerprint(action.getUserId(), action.getEventId());
+        Shard shard = shards[(int) (fingerprint >>> 60) & (SHARDS - 1)];
+        if (shard.seen(fingerprint, System.nanoTime())) {
+            suppressed.increment();
+            return true;
+        }
+        passed.increment();
+        return false;
+    }
+
+    /**
+     * Убирает просмотр, который не был доставлен и не сохранён в спул.
+     */
+    public void forget(UserActionAvro action) {
+        if (!enabled || action.getActionType() != ActionTypeAvro.VIEW) {
+            return;
+        }
+        long fingerprint = fingerprint(action.getUserId(), action.getEventId());
+        shards[(int) (fingerprint >>> 60) & (SHARDS - 1)].forget(fingerprint);
+    }
+
+    /**
+     * Доля отброшенных просмотров с момента запуска.
+     */
+    public double suppressionRatio() {
+        double total = passed.count() + suppressed.count();
+        return total == 0 ? 0 : suppressed.count() / total;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private static long fingerprint(long userId, long eventId) {
+        long h = userId * 0x9E3779B97F4A7C15L + eventId;
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    private static final class Shard {
+
+        private final LongSet[] buckets;
+        private final long spanNanos;
+        private int current;
+        private long rotateAt;
+
+        Shard(int buckets, int bucketEntries, long spanNanos) {
+            this.buckets = new LongSet[buckets];
+            for (int i = 0; i < buckets; i++) {
+                this.buckets[i] = new LongSet(bucketEntries);
+            }
+            this.spanNanos = spanNanos;
+            this.rotateAt = System.nanoTime() + spanNanos;
+        }
+
+        synchronized boolean seen(long fingerprint, long now) {
+            for (int i = 0; i < buckets.length && now - rotateAt >= 0; i++) {
+                rotate();
+                rotateAt += spanNanos;
+            }
+            if (now - rotateAt >= 0) {
+                rotateAt = now + spanNanos;
+            }
+            for (LongSet bucket : buckets) {
+                if (bucket.contains(fingerprint)) {
+                    return true;
+                }
+            }
+            if (buckets[current].isFull()) {
+                rotate();
+                rotateAt = now + spanNanos;
+            }
+            buckets[current].add(fingerprint);
+            return false;
+        }
+
+        synchronized void forget(long fingerprint) {
+            for (LongSet bucket : buckets) {
+                bucket.remove(fingerprint);
+            }
+        }
+
+        synchronized int size() {
+            int size = 0;
+            for (LongSet bucket : buckets) {
+                size += bucket.size;
+            }
+            return size;
+        }
+
+        private void rotate() {
+            current = (current + 1) % buckets.length;
+            buckets[current].clear();
+        }
+    }
+
+    /**
+     * Множество ненулевых long с открытой адресацией и фиксированной ёмкостью, заполнение не выше половины.
+     */
+    private static final class LongSet {
+
+        private final long[] keys;
+        private final int mask;
+        private final int maxSize;
+        private int size;
+
+        LongSet(int maxSize) {
+            int capacity = Integer.highestOneBit(Math.max(maxSize, 8) * 2 - 1) << 1;
+            this.keys = new long[capacity];
+            this.mask = capacity - 1;
+            this.maxSize = maxSize;
+        }
+
+        boolean contains(long key) {
+            for (int i = (int) key & mask; ; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) {
+                    return true;
+                }
+                if (k == 0) {
+                    return false;
+                }
+            }
+        }
+
+        void add(long key) {
+            int i = (int) key & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            size++;
+        }
+
+        /**
+         * Удаляет ключ со сдвигом следующих за ним ключей цепочки, чтобы поиск не обрывался на дыре.
+         */
+        void remove(long key) {
+            int gap = (int) key & mask;
+            while (keys[gap] != key) {
+                if (keys[gap] == 0) {
+                    return;
+                }
+                gap = (gap + 1) & mask;
+            }
+            for (int i = (gap + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                int home = (int) keys[i] & mask;
+                if (((i - home) & mask) >= ((i - gap) & mask)) {
+                    keys[gap] = keys[i];
+                    gap = i;
+                }
+            }
+            keys[gap] = 0;
+            size--;
+        }
+
+        boolean isFull() {
+            return size >= maxSize;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(keys, 0);
+                size = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ru.practicum.stats.kafka;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+import java.util.Properties;
+
+/**
+ * Готовые наборы настроек продюсера: батчинг, сжатие, подтверждения, идемпотентность,
+ * число запросов в полёте и размер буфера. Свойства, заданные в конфигурации явно,
+ * имеют приоритет над настройками профиля.
+ */
+public enum ProducerProfile {
+
+    /**
+     * Крупные батчи с lz4 и подтверждение только от лидера: больше записей в секунду ценой
+     * возможной потери при смене лидера и дублей при повторной отправке.
+     */
+    THROUGHPUT("1", false, 5, 20, 256 * 1024, "lz4", 128L << 20),
+
+    /**
+     * Отправка без ожидания наполнения батча и без сжатия, подтверждение только от лидера.
+     */
+    LATENCY("1", false, 5, 0, 16 * 1024, "none", 32L << 20),
+
+    /**
+     * Подтверждение от всех синхронных реплик и идемпотентность: запись не теряется после
+     * подтверждения, повторы не дают дублей и не меняют порядок внутри партиции.
+     */
+    DURABLE("all", true, 5, 5, 64 * 1024, "lz4", 64L << 20);
+
+    private final String acks;
+    private final boolean idempotence;
+    private final int maxInFlight;
+    private final int lingerMs;
+    private final int batchSize;
+    private final String compression;
+    private final long bufferMemory;
+
+    ProducerProfile(String acks, boolean idempotence, int maxInFlight, int lingerMs, int batchSize,
+                    String compression, long bufferMemory) {
+        this.acks = acks;
+        this.idempotence = idempotence;
+        this.maxInFlight = maxInFlight;
+        this.lingerMs = lingerMs;
+        this.batchSize = batchSize;
+        this.compression = compression;
+        this.bufferMemory = bufferMemory;
+    }
+
+    public Properties properties() {
+        Properties properties = new Properties();
+        properties.put(ProducerConfig.ACKS_CONFIG, acks);
+        properties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, String.valueOf(idempotence));
+        properties.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, String.valueOf(maxInFlight));
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, String.valueOf(lingerMs));
+        properties.put(ProducerConfig.BATCH_SIZE_CONFIG, String.valueOf(batchSize));
+        properties.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
+        properties.put(ProducerConfig.BUFFER_MEMORY_CONFIG, String.valueOf(bufferMemory));
+        return properties;
+    }
+
+    /**
+     * Настройки профиля, поверх которых положены явно заданные свойства. Без профиля
+     * возвращается копия свойств, и продюсер работает с настройками Kafka по умолчанию.
+     */
+    public static Properties apply(ProducerProfile profile, Properties properties) {
+        Properties result = profile == null ? new Properties() : profile.properties();
+        if (properties != null) {
+            result.putAll(properties);
+        }
+        return result;
+    }
+}
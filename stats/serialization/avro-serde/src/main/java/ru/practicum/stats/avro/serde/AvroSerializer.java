@@ -0,0 +1,78 @@
+package ru.practicum.stats.avro.serde;
+
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DatumWriter;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.apache.avro.specific.SpecificRecordBase;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Сериализатор Avro-записей для Kafka.
+ * Писатели кешируются по классу записи, буфер и энкодер переиспользуются в пределах потока:
+ * продюсер сериализует в потоке вызывающего send, а один продюсер может быть общим для нескольких потоков.
+ */
+public class AvroSerializer implements Serializer<SpecificRecordBase> {
+
+    /**
+     * Буфер крупнее этого размера не удерживается между вызовами, чтобы единичное большое
+     * сообщение не закрепляло память за потоком.
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    private final EncoderFactory encoderFactory = EncoderFactory.get();
+    private final ConcurrentMap<Class<?>, DatumWriter<SpecificRecordBase>> writers = new ConcurrentHashMap<>();
+    private final ThreadLocal<EncodeBuffer> buffers = ThreadLocal.withInitial(EncodeBuffer::new);
+
+    @Override
+    public byte[] serialize(String topic, SpecificRecordBase data) {
+        if (data == null) {
+            return null;
+        }
+        EncodeBuffer buffer = buffers.get();
+        try {
+            buffer.reset();
+            buffer.encoder = encoderFactory.binaryEncoder(buffer, buffer.encoder);
+            writerFor(data).write(data, buffer.encoder);
+            buffer.encoder.flush();
+            return buffer.toByteArray();
+        } catch (IOException ex) {
+            throw new SerializationException("Ошибка сериализации данных для топика [" + topic + "]", ex);
+        } finally {
+            if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+                buffers.remove();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        buffers.remove();
+    }
+
+    private DatumWriter<SpecificRecordBase> writerFor(SpecificRecordBase data) {
+        DatumWriter<SpecificRecordBase> writer = writers.get(data.getClass());
+        if (writer == null) {
+            writer = writers.computeIfAbsent(data.getClass(), type -> new SpecificDatumWriter<>(data.getSchema()));
+        }
+        return writer;
+    }
+
+    private static final class EncodeBuffer extends ByteArrayOutputStream {
+        private BinaryEncoder encoder;
+
+        EncodeBuffer() {
+            super(256);
+        }
+
+        int capacity() {
+            return buf.length;
+        }
+    }
+}
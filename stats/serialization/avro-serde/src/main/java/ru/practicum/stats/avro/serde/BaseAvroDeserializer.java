@@ -1,4 +1,4 @@
-package ru.practicum.aggregator.stats.avro;
+package ru.practicum.stats.avro.serde;
 
 import org.apache.avro.Schema;
 import org.apache.avro.io.BinaryDecoder;
@@ -9,9 +9,15 @@ import org.apache.avro.specific.SpecificRecordBase;
 import org.apache.kafka.common.errors.SerializationException;
 import org.apache.kafka.common.serialization.Deserializer;
 
+/**
+ * Десериализатор Avro-записей для Kafka.
+ * Декодер переиспользуется между вызовами: консьюмер вызывает десериализатор только из своего потока.
+ * Сама запись каждый раз создаётся заново, так как poll возвращает пачку записей, которые живут одновременно.
+ */
 public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deserializer<T> {
     private final DecoderFactory decoderFactory;
     private final DatumReader<T> reader;
+    private BinaryDecoder decoder;
 
     public BaseAvroDeserializer(Schema schema) {
         this(DecoderFactory.get(), schema);
@@ -26,7 +32,7 @@ public class BaseAvroDeserializer<T extends SpecificRecordBase> implements Deser
     public T deserialize(String topic, byte[] data) {
         try {
             if (data != null) {
-                BinaryDecoder decoder = decoderFactory.binaryDecoder(data, null);
+                decoder = decoderFactory.binaryDecoder(data, decoder);
                 return this.reader.read(null, decoder);
             }
             return null;
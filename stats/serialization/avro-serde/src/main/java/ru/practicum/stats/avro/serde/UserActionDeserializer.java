@@ -1,4 +1,4 @@
-package ru.practicum.analyzer.stats.avro;
+package ru.practicum.stats.avro.serde;
 
 import ru.practicum.stats.avro.UserActionAvro;
 
@@ -6,13 +6,9 @@ import net.devh.boot.grpc.client.inject.GrpcClient;
 import org.springframework.retry.annotation.Backoff;
 import org.springframework.retry.annotation.Retryable;
 import org.springframework.stereotype.Component;
-import ru.practicum.stats.proto.InteractionsCountRequestProto;
-import ru.practicum.stats.proto.RecommendationsControllerGrpc;
-import ru.practicum.stats.proto.UserPredictionsRequestProto;
+import ru.practicum.stats.proto.*;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 @Slf4j
 @Component
@@ -87,4 +83,83 @@ public class RecommendationsClient {
             throw new RuntimeException("Ошибка при получении рекомендаций для пользователя", e);
         }
     }
+
+    /**
+     * Рекомендации для нескольких пользователей одним вызовом.
+     *
+     * @return оценки мероприятий по ID пользователя; пользователи без рекомендаций в результат не попадают
+     */
+    @Retryable(
+            retryFor = {StatusRuntimeException.class},
+            maxAttempts = 3,
+            backoff = @Backoff(delay = 3000)
+    )
+    public Map<Long, Map<Long, Double>> getRecommendationsForUsers(Collection<Long> userIds, Integer maxResults) {
+        if (userIds == null || userIds.isEmpty()) {
+            return Map.of();
+        }
+
+        try {
+            BatchUserPredictionsRequestProto request = BatchUserPredictionsRequestProto.newBuilder()
+                    .addAllUserId(userIds)
+                    .setMaxResults(maxResults != null ? maxResults : 10)
+                    .build();
+
+            Map<Long, Map<Long, Double>> recommendations = collectByKey(client.getRecommendationsForUsers(request));
+            log.info("Получены рекомендации для {} из {} пользователей", recommendations.size(), userIds.size());
+            return recommendations;
+        } catch (StatusRuntimeException e) {
+            log.error("Не удалось получить рекомендации для пользователей {}. Статус: {}, сообщение: {}",
+                    userIds, e.getStatus(), e.getMessage(), e);
+            throw e;
+        } catch (Exception e) {
+            log.error("Не удалось получить рекомендации для пользователей {}. Исключение: {}, сообщение: {}",
+                    userIds, e.getClass().getName(), e.getMessage(), e);
+            throw new RuntimeException("Ошибка при получении рекомендаций для пользователей", e);
+        }
+    }
+
+    /**
+     * Похожие мероприятия для нескольких мероприятий одним вызовом, без уже посещённых пользователем.
+     *
+     * @return оценки похожих мероприятий по ID исходного мероприятия
+     */
+    @Retryable(
+            retryFor = {StatusRuntimeException.class},
+            maxAttempts = 3,
+            backoff = @Backoff(delay = 3000)
+    )
+    public Map<Long, Map<Long, Double>> getSimilarEvents(Collection<Long> eventIds, Long userId, Integer maxResults) {
+        if (eventIds == null || eventIds.isEmpty() || userId == null) {
+            return Map.of();
+        }
+
+        try {
+            BatchSimilarEventsRequestProto request = BatchSimilarEventsRequestProto.newBuilder()
+                    .addAllEventId(eventIds)
+                    .setUserId(userId)
+                    .setMaxResults(maxResults != null ? maxResults : 10)
+                    .build();
+
+            Map<Long, Map<Long, Double>> similar = collectByKey(client.getSimilarEventsBatch(request));
+            log.info("Получены похожие мероприятия для {} из {} мероприятий", similar.size(), eventIds.size());
+            return similar;
+        } catch (StatusRuntimeException e) {
+            log.error("Не удалось получить похожие мероприятия для {}. Статус: {}, сообщение: {}",
+                    eventIds, e.getStatus(), e.getMessage(), e);
+            throw e;
+        } catch (Exception e) {
+            log.error("Не удалось получить похожие мероприятия для {}. Исключение: {}, сообщение: {}",
+                    eventIds, e.getClass().getName(), e.getMessage(), e);
+            throw new RuntimeException("Ошибка при получении похожих мероприятий", e);
+        }
+    }
+
+    private static Map<Long, Map<Long, Double>> collectByKey(Iterator<KeyedRecommendedEventProto> responses) {
+        Map<Long, Map<Long, Double>> result = new HashMap<>();
+        responses.forEachRemaining(response -> result
+                .computeIfAbsent(response.getKey(), k -> new HashMap<>())
+                .put(response.getEvent().getEventId(), response.getEvent().getScore()));
+        return result;
+    }
 }